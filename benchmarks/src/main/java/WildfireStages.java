@@ -0,0 +1,136 @@
+import wildfire.bench.Stages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stages of the benchmarks (see wildfire.bench.Stages), in the default package to reach the wildfire classes.
+ * One instance per benchmark state: it owns its DataFinder, Combiners and calculators, so it is not thread safe.
+ */
+public class WildfireStages implements Stages {
+    private ModisColumnStore store;
+    private final List<OccurInfo> occurrences = new ArrayList<>();
+    private final List<List<ModisInfo>> fireDayLists = new ArrayList<>();
+    private DataFinder listFinder;
+    private DataFinder columnFinder;
+    private final Map<String, Combiner> combiners = new HashMap<>();
+    private final Map<String, AreaCalculator> calculators = new HashMap<>();
+    private final FireGrid listGrid = new FireGrid();
+
+    @Override
+    public int readLegacy(String fileName) throws IOException {
+        clearLegacyState();
+        ModisFileReader.read(fileName);
+        return ModisFileReader.modisInfoList.size();
+    }
+
+    private static void clearLegacyState() {
+        ModisFileReader.modisInfoList = new ArrayList<>();
+        ModisFileReader.rawData = new ArrayList<>();
+    }
+
+    @Override
+    public Object readColumns(String fileName) throws IOException {
+        return ModisFileReader.readColumns(fileName);
+    }
+
+    @Override
+    public Object readColumnsParallel(String fileName) throws IOException {
+        return ModisFileReader.readColumnsParallel(fileName);
+    }
+
+    @Override
+    public int load(String fileName, int maxOccurrences) throws IOException {
+        store = ModisFileReader.readColumns(fileName);
+        int step = Math.max(1, store.size / Math.max(1, maxOccurrences));
+        //the legacy structures are built from the store, so both hold the same pixels without reading the file twice
+        clearLegacyState();
+        for (int i = 0; i < store.size; i++) {
+            ModisFileReader.modisInfoList.add(store.toModisInfo(i));
+        }
+        ModisFileReader.indexDays();
+        occurrences.clear();
+        for (int i = 0; i < store.size; i += step) {
+            OccurInfo occurInfo = new OccurInfo();
+            occurInfo.lat = store.lat[i];
+            occurInfo.lng = store.lng[i];
+            occurInfo.day = store.day[i];
+            occurInfo.date = MyDate.fromEpochDay(store.day[i]);
+            occurrences.add(occurInfo);
+        }
+        FireTracks tracks = store.tracks();
+        fireDayLists.clear();
+        for (int s = 0; s < tracks.segmentDay.length; s++) {
+            List<ModisInfo> list = new ArrayList<>();
+            for (int p = tracks.segmentStart[s]; p < tracks.segmentStart[s + 1]; p++) {
+                list.add(store.toModisInfo(tracks.trackPixels[p]));
+            }
+            fireDayLists.add(list);
+        }
+        listFinder = new DataFinder();
+        columnFinder = new DataFinder(store);
+        combiners.clear();
+        combiners.put("legacy", new Combiner());
+        sizeCache(true);
+        calculators.clear();
+        for (AreaCalculator.Engine engine : AreaCalculator.Engine.values()) {
+            double resolution = engine == AreaCalculator.Engine.QUADTREE ? QuadtreeArea.resolutionOf(store) : QuadtreeArea.MODIS_RESOLUTION;
+            calculators.put(engine.name(), engine.create(resolution));
+        }
+        return occurrences.size();
+    }
+
+    @Override
+    public Object findPixels(int occurrence) {
+        OccurInfo o = occurrences.get(occurrence);
+        return listFinder.getStartToEndFirePixelsByOccurrence(o.lat, o.lng, o.day);
+    }
+
+    @Override
+    public Object findRanges(int occurrence) {
+        OccurInfo o = occurrences.get(occurrence);
+        return columnFinder.getStartToEndFirePixelRangesByOccurrence(o.lat, o.lng, o.day);
+    }
+
+    @Override
+    public int findTrack(int occurrence) {
+        OccurInfo o = occurrences.get(occurrence);
+        return columnFinder.getFireTrackByOccurrence(o.lat, o.lng, o.day);
+    }
+
+    @Override
+    public int fireDays() {
+        return fireDayLists.size();
+    }
+
+    @Override
+    public double calcSize(String engine, int fireDay) {
+        FireTracks tracks = store.tracks();
+        return calculators.get(engine).calcSize(store, tracks.trackPixels, tracks.segmentStart[fireDay], tracks.segmentStart[fireDay + 1]);
+    }
+
+    @Override
+    public double calcSizeOfList(int fireDay) {
+        return listGrid.calcSize(fireDayLists.get(fireDay));
+    }
+
+    @Override
+    public void sizeCache(boolean enabled) {
+        Combiner columns = new Combiner(store);
+        Combiner tracks = new Combiner(store, true);
+        if (!enabled) {
+            columns.sizeCache = new FireSizeCache(store, 0, columns.areaEngine);
+            tracks.sizeCache = new FireSizeCache(store, 0, tracks.areaEngine);
+        }
+        combiners.put("columns", columns);
+        combiners.put("tracks", tracks);
+    }
+
+    @Override
+    public Object merge(String mode, int occurrence) {
+        return combiners.get(mode).mergeOneOccurrence(occurrences.get(occurrence));
+    }
+}
@@ -0,0 +1,70 @@
+package wildfire.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combiner.mergeOneOccurrence: finding, sizing and summarizing the fire of one occurrence per operation,
+ * cycling over occurrences spread over the file.
+ * The benchmark cycles over the same occurrences, so with sizeCache=true all but the first pass of an iteration find
+ * their daily sizes in the cache; sizeCache=false measures the merge paths themselves, sizing every day like legacy
+ * (which has no cache).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CombinerBenchmark {
+    @Param({"MODIS_sample", "MODIS_C6_USA_contiguous_and_Hawaii_7d", "MODIS_C6_Southern_Africa_7d", "modis_2019_Canada"})
+    String file;
+
+    @Param({"legacy", "columns", "tracks"})
+    String mode;
+
+    @Param({"1000"})
+    int occurrences;
+
+    @Param({"false", "true"})
+    boolean sizeCache;
+
+    Stages stages;
+    int count;
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        stages = Stages.create();
+        count = stages.load(Stages.dataFile(file), occurrences);
+    }
+
+    /**
+     * Every iteration starts with new Combiners, so a size cache is empty
+     */
+    @Setup(Level.Iteration)
+    public void newCombiners() {
+        stages.sizeCache(sizeCache);
+        next = 0;
+    }
+
+    @Benchmark
+    public Object mergeOneOccurrence() {
+        int o = next;
+        next = o + 1 == count ? 0 : o + 1;
+        return stages.merge(mode, o);
+    }
+}
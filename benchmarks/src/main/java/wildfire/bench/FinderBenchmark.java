@@ -0,0 +1,68 @@
+package wildfire.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the fire of one occurrence (start date, end date and daily pixels), one occurrence per operation,
+ * cycling over occurrences spread over the file
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FinderBenchmark {
+    @Param({"MODIS_sample", "MODIS_C6_USA_contiguous_and_Hawaii_7d", "MODIS_C6_Southern_Africa_7d", "modis_2019_Canada"})
+    String file;
+
+    @Param({"1000"})
+    int occurrences;
+
+    Stages stages;
+    int count;
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        stages = Stages.create();
+        count = stages.load(Stages.dataFile(file), occurrences);
+    }
+
+    private int nextOccurrence() {
+        int o = next;
+        next = o + 1 == count ? 0 : o + 1;
+        return o;
+    }
+
+    /**
+     * DataFinder.getStartToEndFirePixelsByOccurrence
+     */
+    @Benchmark
+    public Object getStartToEndFirePixels() {
+        return stages.findPixels(nextOccurrence());
+    }
+
+    @Benchmark
+    public Object getStartToEndFirePixelRanges() {
+        return stages.findRanges(nextOccurrence());
+    }
+
+    @Benchmark
+    public int getFireTrack() {
+        return stages.findTrack(nextOccurrence());
+    }
+}
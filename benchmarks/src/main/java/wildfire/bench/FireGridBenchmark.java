@@ -0,0 +1,70 @@
+package wildfire.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizing one daily fire (a fire track segment) per operation, cycling over all the daily fires of the file,
+ * with each area engine on the column store, and with FireGrid on ModisInfo lists
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FireGridBenchmark {
+    @Param({"MODIS_sample", "MODIS_C6_USA_contiguous_and_Hawaii_7d", "MODIS_C6_Southern_Africa_7d", "modis_2019_Canada"})
+    String file;
+
+    Stages stages;
+    int count;
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        stages = Stages.create();
+        stages.load(Stages.dataFile(file), 1);
+        count = stages.fireDays();
+    }
+
+    private int nextFireDay() {
+        int f = next;
+        next = f + 1 == count ? 0 : f + 1;
+        return f;
+    }
+
+    /**
+     * Area engine of calcSize; a separate state so that only calcSize runs once per engine
+     */
+    @State(Scope.Thread)
+    public static class Engine {
+        @Param({"GRID", "SWEEP", "QUADTREE"})
+        String engine;
+    }
+
+    @Benchmark
+    public double calcSize(Engine engine) {
+        return stages.calcSize(engine.engine, nextFireDay());
+    }
+
+    /**
+     * FireGrid.calcSize(List&lt;ModisInfo&gt;)
+     */
+    @Benchmark
+    public double calcSizeOfList() {
+        return stages.calcSizeOfList(nextFireDay());
+    }
+}
@@ -0,0 +1,49 @@
+package wildfire.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a MODIS file into the column store, sequentially and in parallel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+    @Param({"MODIS_sample", "MODIS_C6_USA_contiguous_and_Hawaii_7d", "MODIS_C6_Southern_Africa_7d", "modis_2019_Canada"})
+    String file;
+
+    Stages stages;
+    String fileName;
+
+    @Setup
+    public void setup() {
+        stages = Stages.create();
+        fileName = Stages.dataFile(file);
+    }
+
+    @Benchmark
+    public Object readColumns() throws IOException {
+        return stages.readColumns(fileName);
+    }
+
+    @Benchmark
+    public Object readColumnsParallel() throws IOException {
+        return stages.readColumnsParallel(fileName);
+    }
+}
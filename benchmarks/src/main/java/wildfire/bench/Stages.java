@@ -0,0 +1,102 @@
+package wildfire.bench;
+
+import java.io.IOException;
+
+/**
+ * The pipeline stages measured by the benchmarks.
+ * The wildfire classes live in the default package, which code in a named package (as JMH requires for benchmarks)
+ * can not reference, so they are called through this interface, implemented by the default package class
+ * WildfireStages. It is looked up once by name and then called directly, without reflection on the measured path.
+ */
+public interface Stages {
+
+    /**
+     * @return a new WildfireStages
+     */
+    static Stages create() {
+        try {
+            return (Stages) Class.forName("WildfireStages").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("WildfireStages is not on the class path", e);
+        }
+    }
+
+    /**
+     * @param name data set name, e.g. MODIS_sample
+     * @return path of its CSV file in the data directory (system property wildfire.data, "data" by default)
+     */
+    static String dataFile(String name) {
+        return System.getProperty("wildfire.data", "data") + "/" + name + ".csv";
+    }
+
+    /**
+     * ModisFileReader.read, starting from empty reader state
+     * @return number of pixels read
+     */
+    int readLegacy(String fileName) throws IOException;
+
+    /**
+     * ModisFileReader.readColumns
+     * @return the column store
+     */
+    Object readColumns(String fileName) throws IOException;
+
+    /**
+     * ModisFileReader.readColumnsParallel
+     * @return the column store
+     */
+    Object readColumnsParallel(String fileName) throws IOException;
+
+    /**
+     * Load a MODIS file for the other stages: the column store, the legacy per-day ModisInfo lists built from it, and
+     * occurrences placed on pixels spread evenly over the file (so they hit a fire)
+     * @param maxOccurrences number of occurrences, at most one per pixel
+     * @return number of occurrences
+     */
+    int load(String fileName, int maxOccurrences) throws IOException;
+
+    /**
+     * DataFinder.getStartToEndFirePixelsByOccurrence (ModisInfo lists) for one occurrence
+     */
+    Object findPixels(int occurrence);
+
+    /**
+     * DataFinder.getStartToEndFirePixelRangesByOccurrence (column store) for one occurrence
+     */
+    Object findRanges(int occurrence);
+
+    /**
+     * DataFinder.getFireTrackByOccurrence (precomputed fire tracks) for one occurrence
+     */
+    int findTrack(int occurrence);
+
+    /**
+     * @return number of daily fires (fire track segments) of the loaded file
+     */
+    int fireDays();
+
+    /**
+     * AreaCalculator.calcSize (FireGrid for GRID) of one daily fire
+     * @param engine GRID, SWEEP or QUADTREE
+     * @param fireDay fire track segment
+     */
+    double calcSize(String engine, int fireDay);
+
+    /**
+     * FireGrid.calcSize on the ModisInfo list of one daily fire
+     */
+    double calcSizeOfList(int fireDay);
+
+    /**
+     * New column and track Combiners for merge, with an empty size cache or without one
+     * @param enabled if false every daily size is computed, as in the legacy merge
+     */
+    void sizeCache(boolean enabled);
+
+    /**
+     * Combiner.mergeOneOccurrence for one occurrence
+     * @param mode legacy (ModisInfo lists), columns (column store) or tracks (fire tracks); column and track merges
+     * share one size cache across calls (see sizeCache)
+     */
+    Object merge(String mode, int occurrence);
+}
@@ -0,0 +1,66 @@
+import java.util.List;
+
+/**
+ * Calculates the size (in KM^2) of a fire from its pixels, each pixel covering a scan x track rectangle.
+ * Implementations:
+ * FireGrid rasterizes the pixels onto a 1 km grid with per-side coverage fractions (the original estimate);
+ * SweepLineArea computes the exact area of the union of the rectangles;
+ * QuadtreeArea estimates it at a chosen resolution per sensor.
+ * After each calcSize call, getCenterPoint returns the center of the pixels' bounding box {lat, lng}.
+ */
+public interface AreaCalculator {
+
+    /**
+     * Available engines, e.g. for Combiner.areaEngine
+     */
+    enum Engine {
+        GRID, SWEEP, QUADTREE;
+
+        AreaCalculator create() {
+            return create(QuadtreeArea.MODIS_RESOLUTION);
+        }
+
+        /**
+         * @param resolution cell side in KM for QUADTREE (see QuadtreeArea.resolutionOf); GRID always uses 1 km cells
+         * and SWEEP is exact
+         */
+        AreaCalculator create(double resolution) {
+            switch (this) {
+                case SWEEP:
+                    return new SweepLineArea();
+                case QUADTREE:
+                    return new QuadtreeArea(resolution);
+                default:
+                    return new FireGrid();
+            }
+        }
+    }
+
+    /**
+     * @param modisInfoList
+     * @return the size of the fire formed by the input pixels
+     */
+    double calcSize(List<ModisInfo> modisInfoList);
+
+    /**
+     * @param store
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @return the size of the fire formed by the pixels in [from, to)
+     */
+    double calcSize(ModisColumnStore store, int from, int to);
+
+    /**
+     * @param store
+     * @param pixels pixel indices
+     * @param from position of the first pixel index in pixels
+     * @param to position after the last pixel index in pixels
+     * @return the size of the fire formed by the pixels
+     */
+    double calcSize(ModisColumnStore store, int[] pixels, int from, int to);
+
+    /**
+     * @return {lat, lng} center of the bounding box of the pixels of the last calcSize call
+     */
+    Double[] getCenterPoint();
+}
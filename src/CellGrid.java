@@ -0,0 +1,413 @@
+import java.util.Arrays;
+
+/**
+ * Coverage kernel of FireGrid.Grid on flat primitive arrays.
+ * Cell state is kept in packed double[] arrays (left, right, up, down) and two bit sets (covered horizontally,
+ * covered vertically) instead of one Cell object per cell, and adding a pixel creates no objects.
+ * The coverage rules, the order of the floating point operations and the row by row summing order of
+ * countTotalCovered are the same as FireGrid.Grid, so every subclass returns exactly the same size.
+ * Subclasses decide where the cells of a (row, col) live: FlatGrid stores the whole grid, SparseGrid only the
+ * tiles touched by pixels. Grids are reset in place so one instance can be reused for many fires.
+ * Between startJournal and endJournal the grid records the cells that pixels change, so the size added by a batch
+ * of pixels (e.g. one more day of a fire, see CumulativeArea) is found without counting the whole grid again.
+ * The journal also keeps the coverage of the batch's own pixels in those cells, as if the grid had been empty,
+ * so the size of the batch alone comes from the same pass over its pixels.
+ */
+public abstract class CellGrid {
+    double map0Lat;
+    double map0Lng;
+    int rlength; //map height in KM
+    int clength; //map width in KM
+    int coveredCnt;
+    double countTotal;
+
+    double[] left = new double[0];
+    double[] right = new double[0];
+    double[] up = new double[0];
+    double[] down = new double[0];
+    long[] coveredHorizontally = new long[0]; //bit set
+    long[] coveredVertically = new long[0]; //bit set
+
+    //journal: cells changed since startJournal and what they added to the size before the first change
+    private boolean journaling;
+    private long[] journaled = new long[0]; //bit set
+    private int[] journalCells = new int[64];
+    private double[] journalBefore = new double[64];
+    private int journalSize;
+    private int[] journalSlot = new int[0]; //position in the journal of each journaled cell
+    //coverage of the journaled cells by the pixels added since startJournal alone, by journal position
+    private double[] ownLeft = new double[64];
+    private double[] ownRight = new double[64];
+    private double[] ownUp = new double[64];
+    private double[] ownDown = new double[64];
+    private long[] ownHorizontally = new long[1]; //bit set
+    private long[] ownVertically = new long[1]; //bit set
+    /**
+     * covered size (KM^2) of the pixels added between the last startJournal and endJournal on their own
+     */
+    double journalOwnSize;
+
+    /**
+     * @return index of the cell in the cell arrays, making room for it if needed
+     */
+    abstract int cell(int row, int col);
+
+    /**
+     * @return index of the cell in the cell arrays, or -1 if it has no storage (and so is not covered)
+     */
+    abstract int find(int row, int col);
+
+    /**
+     * Calculation of the covered part's size in KM^2
+     * @return the covered part's size in KM^2
+     */
+    public abstract double countTotalCovered();
+
+    /**
+     * @return number of cells of the current fire that have storage (for PipelineStats)
+     */
+    abstract int cellsInUse();
+
+    /**
+     * Start a new, empty grid
+     * @param map0Lat the smallest latitude of the pixels
+     * @param map0Lng the smallest longitude of the pixels
+     * @param rlength number of rows, as in FireGrid.Grid
+     * @param clength number of columns, as in FireGrid.Grid
+     */
+    void reset(double map0Lat, double map0Lng, int rlength, int clength) {
+        this.map0Lat = map0Lat;
+        this.map0Lng = map0Lng;
+        this.rlength = rlength;
+        this.clength = clength;
+        coveredCnt = 0;
+        countTotal = 0;
+        clearJournal();
+        journaling = false;
+    }
+
+    /**
+     * @return the size of the cell arrays, rounded up to whole words of the bit sets
+     */
+    static int roundCells(long cells) {
+        return (int) ((cells + 63) & ~63L);
+    }
+
+    /**
+     * Grow the cell arrays to hold at least the given number of cells, keeping their content
+     */
+    void ensureCells(int cells) {
+        if (cells <= left.length) return;
+        int capacity = roundCells(Math.max(cells, left.length + (left.length >> 1)));
+        if (PipelineStats.ENABLED) PipelineStats.GRID.cellsAllocated.add(capacity - left.length);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        up = Arrays.copyOf(up, capacity);
+        down = Arrays.copyOf(down, capacity);
+        coveredHorizontally = Arrays.copyOf(coveredHorizontally, capacity >> 6);
+        coveredVertically = Arrays.copyOf(coveredVertically, capacity >> 6);
+        journaled = Arrays.copyOf(journaled, capacity >> 6);
+        journalSlot = Arrays.copyOf(journalSlot, capacity);
+    }
+
+    /**
+     * Clear the cells [from, to); from and to are multiples of 64
+     */
+    void clearCells(int from, int to) {
+        Arrays.fill(left, from, to, 0);
+        Arrays.fill(right, from, to, 0);
+        Arrays.fill(up, from, to, 0);
+        Arrays.fill(down, from, to, 0);
+        Arrays.fill(coveredHorizontally, from >> 6, to >> 6, 0);
+        Arrays.fill(coveredVertically, from >> 6, to >> 6, 0);
+    }
+
+    static boolean get(long[] bits, int k) {
+        return (bits[k >> 6] & (1L << k)) != 0;
+    }
+
+    static void set(long[] bits, int k) {
+        bits[k >> 6] |= 1L << k;
+    }
+
+    /**
+     * @return what cell k adds to the covered size, as in FireGrid.Grid.countTotalCovered
+     */
+    double covered(int k) {
+        boolean h = get(coveredHorizontally, k);
+        boolean v = get(coveredVertically, k);
+        if (h && v) { //the cell is fully covered by fire pixels
+            return 1;
+        } else if (h) {
+            return up[k] + down[k];
+        } else if (v) {
+            return left[k] + right[k];
+        } else {
+            return (up[k] + down[k]) * (left[k] + right[k]);
+        }
+    }
+
+    /**
+     * Start recording the cells changed by the following addPixel calls
+     */
+    void startJournal() {
+        clearJournal();
+        journaling = true;
+    }
+
+    /**
+     * Stop recording; journalOwnSize is then the covered size of the pixels since startJournal on their own
+     * @return the covered size (KM^2) added by the pixels since startJournal, only visiting the cells they changed
+     */
+    double endJournal() {
+        double added = 0;
+        double own = 0;
+        for (int j = 0; j < journalSize; j++) {
+            int k = journalCells[j];
+            added += covered(k) - journalBefore[j];
+            own += coveredOwn(j);
+        }
+        journalOwnSize = own;
+        clearJournal();
+        journaling = false;
+        return added;
+    }
+
+    /**
+     * @return what journaled cell j adds to the size of the journaled pixels alone, by the rules of covered
+     */
+    private double coveredOwn(int j) {
+        boolean h = get(ownHorizontally, j);
+        boolean v = get(ownVertically, j);
+        if (h && v) {
+            return 1;
+        } else if (h) {
+            return ownUp[j] + ownDown[j];
+        } else if (v) {
+            return ownLeft[j] + ownRight[j];
+        } else {
+            return (ownUp[j] + ownDown[j]) * (ownLeft[j] + ownRight[j]);
+        }
+    }
+
+    private void clearJournal() {
+        for (int j = 0; j < journalSize; j++) {
+            int k = journalCells[j];
+            journaled[k >> 6] = 0;
+        }
+        Arrays.fill(ownLeft, 0, journalSize, 0);
+        Arrays.fill(ownRight, 0, journalSize, 0);
+        Arrays.fill(ownUp, 0, journalSize, 0);
+        Arrays.fill(ownDown, 0, journalSize, 0);
+        Arrays.fill(ownHorizontally, 0, (journalSize + 63) >> 6, 0);
+        Arrays.fill(ownVertically, 0, (journalSize + 63) >> 6, 0);
+        journalSize = 0;
+    }
+
+    /**
+     * @return index of the cell (see cell) that is about to change, recorded in the journal if one is open
+     */
+    private int change(int row, int col) {
+        int k = cell(row, col);
+        if (journaling && !get(journaled, k)) {
+            set(journaled, k);
+            if (journalSize == journalCells.length) {
+                int capacity = journalSize * 2;
+                journalCells = Arrays.copyOf(journalCells, capacity);
+                journalBefore = Arrays.copyOf(journalBefore, capacity);
+                ownLeft = Arrays.copyOf(ownLeft, capacity);
+                ownRight = Arrays.copyOf(ownRight, capacity);
+                ownUp = Arrays.copyOf(ownUp, capacity);
+                ownDown = Arrays.copyOf(ownDown, capacity);
+                ownHorizontally = Arrays.copyOf(ownHorizontally, capacity >> 6);
+                ownVertically = Arrays.copyOf(ownVertically, capacity >> 6);
+            }
+            journalCells[journalSize] = k;
+            journalBefore[journalSize] = covered(k);
+            journalSlot[k] = journalSize;
+            journalSize++;
+        }
+        return k;
+    }
+
+    //the same updates as the add methods below, applied to the journal's own coverage of cell k
+
+    private void ownCoverHorizontally(int k) {
+        if (journaling) set(ownHorizontally, journalSlot[k]);
+    }
+
+    private void ownCoverVertically(int k) {
+        if (journaling) set(ownVertically, journalSlot[k]);
+    }
+
+    private void ownRight(int k, double value) {
+        if (!journaling) return;
+        int j = journalSlot[k];
+        if (get(ownHorizontally, j)) return;
+        ownRight[j] = Math.max(ownRight[j], value);
+        if (ownLeft[j] + ownRight[j] >= 1) set(ownHorizontally, j);
+    }
+
+    private void ownLeft(int k, double value) {
+        if (!journaling) return;
+        int j = journalSlot[k];
+        if (get(ownHorizontally, j)) return;
+        ownLeft[j] = Math.max(ownLeft[j], value);
+        if (ownLeft[j] + ownRight[j] >= 1) set(ownHorizontally, j);
+    }
+
+    private void ownUp(int k, double value) {
+        if (!journaling) return;
+        int j = journalSlot[k];
+        if (get(ownVertically, j)) return;
+        ownUp[j] = Math.max(ownUp[j], value);
+        if (ownDown[j] + ownUp[j] >= 1) set(ownVertically, j);
+    }
+
+    private void ownDown(int k, double value) {
+        if (!journaling) return;
+        int j = journalSlot[k];
+        if (get(ownVertically, j)) return;
+        ownDown[j] = Math.max(ownDown[j], value);
+        if (ownDown[j] + ownUp[j] >= 1) set(ownVertically, j);
+    }
+
+    private boolean isFullyCovered(int row, int col) {
+        int k = find(row, col);
+        return k >= 0 && get(coveredHorizontally, k) && get(coveredVertically, k);
+    }
+
+    /**
+     * adding a pixel to the current gird
+     * @param lat latitude of the pixel
+     * @param lng longitude of the pixel
+     * @param clen the Scan of the pixel: the actual width of the pixel (in km)
+     * @param rlen the Track of the pixel: the actual height of the pixel (in km)
+     */
+    public void addPixel(double lat, double lng, double clen, double rlen) {
+        // in grid position (relative position): transforming from latitude and longitude
+        double c = convertLatToCol(lat);
+        double r = convertLngToRow(lng);
+
+        //these are to determine the other dimension (the row num and col num) when adding the pixel in one dimension
+        int rowStart = (int) Math.floor(r - rlen/2); //row start
+        int rowEnd = (int) Math.floor(r + rlen/2); //include
+        int colStart = (int) Math.floor(c - clen/2); //col start
+        int colEnd = (int) Math.floor(c + clen/2); //include
+
+        //these are actual location of the pixel
+        double ccs = c - clen/2;
+        double cce = c + clen/2;
+        double rrs = r - rlen/2;
+        double rre = r + rlen/2;
+
+        //process column - horizontal:
+        for (int i = rowStart; i <= rowEnd; i++) {
+            addPixelHorizontally(ccs, cce, i);
+        }
+        //process row - vertical:
+        for (int i = colStart; i <= colEnd; i++) {
+            addPixelVertically(rrs, rre, i);
+        }
+    }
+
+    /**
+     * Adding the pixel horizontally: only consider the starting and ending point in the current row
+     * @param start starting coordinate of the pixel
+     * @param end ending coordinate of the pixel
+     * @param row the current row
+     */
+    public void addPixelHorizontally(double start, double end, int row) {
+        if (row < 0 || row >= rlength) return;
+        int index = (int) Math.floor(start);
+        if (index >= 0) {
+            int k = change(row, index);
+            if (Math.abs(start - index) < 0.00001) {
+                ownCoverHorizontally(k);
+                set(coveredHorizontally, k); //this cell is fully covered horizontally
+                if (get(coveredVertically, k)) {
+                    coveredCnt++; //ignore coveredCnt
+                }
+                return;
+            }
+            ownRight(k, index + 1 - start);
+            if (!get(coveredHorizontally, k)) {
+                right[k] = Math.max(right[k], index + 1 - start);
+                if (left[k] + right[k] >= 1) {
+                    set(coveredHorizontally, k); //this cell is fully covered horizontally
+                    if (get(coveredVertically, k)) {
+                        coveredCnt++; //ignore coveredCnt
+                    }
+                }
+            }
+        }
+
+        if (index >= 0 && index + 1 < clength) {
+            int k = change(row, index + 1);
+            ownLeft(k, end - index - 1);
+            if (!get(coveredHorizontally, k)) {
+                left[k] = Math.max(left[k], end - index - 1);
+                if (left[k] + right[k] >= 1) {
+                    set(coveredHorizontally, k); //this cell is fully covered horizontally
+                    if (isFullyCovered(row, index)) {
+                        coveredCnt++;
+                    }
+                }
+            }
+        }
+    }
+
+    public void addPixelVertically(double start, double end, int col) {
+        if (col < 0 || col >= clength) return;
+        int index = (int) Math.floor(start);
+        if (index >= 0) {
+            int k = change(index, col);
+            if (Math.abs(start - index) < 0.00001) {
+                ownCoverVertically(k);
+                set(coveredVertically, k); //this cell is fully covered vertically
+                if (get(coveredHorizontally, k)) {
+                    coveredCnt++;
+                }
+                return;
+            }
+            ownUp(k, index + 1 - start);
+            if (!get(coveredVertically, k)) {
+                up[k] = Math.max(up[k], index + 1 - start);
+                if (down[k] + up[k] >= 1) {
+                    set(coveredVertically, k); //this cell is fully covered vertically
+                    if (get(coveredHorizontally, k)) {
+                        coveredCnt++;
+                    }
+                }
+            }
+        }
+
+        if (index + 1 < rlength) {
+            int k = change(index + 1, col);
+            ownDown(k, end - index - 1);
+            if (!get(coveredVertically, k)) {
+                down[k] = Math.max(down[k], end - index - 1);
+                if (down[k] + up[k] >= 1) {
+                    set(coveredVertically, k); //this cell is fully covered vertically
+                    if (isFullyCovered(index, col)) {
+                        coveredCnt++;
+                    }
+                }
+            }
+        }
+    }
+
+    public int displayCount() {
+        return coveredCnt;
+    }
+
+    double convertLatToCol(double lat) {
+        double col = (lat - map0Lat) * 2 * Math.PI * FireGrid.RADIUS / 360;
+        return col;
+    }
+
+    double convertLngToRow(double lng) {
+        double y = (lng - map0Lng) * 2 * Math.PI * FireGrid.RADIUS / 360;
+        return rlength - y;
+    }
+}
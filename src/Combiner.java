@@ -1,229 +1,425 @@
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 
 public class Combiner {
     DataFinder df = new DataFinder();
     Calculator calculator = new Calculator();
+    /**
+     * when set, fire pixels are read from the column store instead of ModisFileReader.dayModisInfo
+     */
+    ModisColumnStore store;
+    /**
+     * when set (with a column store), occurrences are mapped to the precomputed FireTracks of the store
+     * instead of walking the days with the thresholds of DataFinder
+     */
+    boolean useTracks;
+    /**
+     * sizes of the daily pixel sets of the column store, computed once per pixel set
+     */
+    FireSizeCache sizeCache;
+    /**
+     * how daily fire sizes are calculated (set before setStore)
+     */
+    AreaCalculator.Engine areaEngine = AreaCalculator.Engine.GRID;
+    /**
+     * number of occurrences merged together by mergeAndWriteToCSVStreaming before their rows are written
+     */
+    static final int STREAM_BATCH_SIZE = 256;
+    /**
+     * number of occurrences merged by mergeAndWriteToCSV between two checkpoints
+     */
+    static final int CHECKPOINT_BATCH_SIZE = 4096;
+
+    Combiner() {}
+
+    Combiner(ModisColumnStore store) {
+        setStore(store);
+    }
+
+    Combiner(ModisColumnStore store, boolean useTracks) {
+        this(store);
+        this.useTracks = useTracks;
+    }
     /**
      * Merge Modis info with Occurrence info
      * Step1: Find corresponding pixel info from start date to end date by calling getStartToEndFirePixelsByOccurance with
      *        given latitude, longitude and acq_data
-     * Step2: If the pixel info is not null, then we calculate everyday fire size by calling calcSize() and save them in a TreeMap
-     *        where key is the date and the value is the fire size
-     * Step3: Calculate peak date, max size, average size, average increasing rate and average decreasing rate with
-     *        start date, end date and the TreeMap storing daily fire size (generated in Step2)
+     * Step2: If the pixel info is not null, then we calculate everyday fire size by calling calcSize() and save them in a
+     *        FireTimeSeries indexed by days since the start date
+     * Step3: Calculate peak date, max size, average size, average increasing rate and average decreasing rate from
+     *        the FireTimeSeries storing daily fire size (generated in Step2)
      * @param occurInfo
      * @return MergedInfo
      */
     MergedInfo mergeOneOccurrence (OccurInfo occurInfo) {
-        TreeMap<Date, Double> multiDaysSize = new TreeMap<>();
-        TreeMap<Date, Double[]> multiDaysSizeCenterPoint = new TreeMap<>();
+        if (store != null) {
+            return useTracks ? mergeOneOccurrenceFromTrack(occurInfo) : mergeOneOccurrenceFromColumns(occurInfo);
+        }
         // Get the pixel info from start date to end date with given latitude, longitude and acq_data
-        StartEndDatePixelInfo startEndDatePixelInfo = df.getStartToEndFirePixelsByOccurrence(occurInfo.lat, occurInfo.lng, occurInfo.date);
+        StartEndDatePixelInfo startEndDatePixelInfo = df.getStartToEndFirePixelsByOccurrence(occurInfo.lat, occurInfo.lng, occurInfo.day);
         if (startEndDatePixelInfo == null) return null;
         // If startEndDatePixelInfo is null, it means there is no fire pixel detected with given latitude, longitude and acq_data
-        for (Date d: startEndDatePixelInfo.multipleDaysSelectData.keySet()) {
+        FireTimeSeries series = calculator.series;
+        series.reset(startEndDatePixelInfo.startDay, startEndDatePixelInfo.endDay);
+        int days = 0;
+        for (int d = 0; d < startEndDatePixelInfo.multipleDaysSelectData.size(); d++) {
             List<ModisInfo> modisInfoList = startEndDatePixelInfo.multipleDaysSelectData.get(d);
             if (modisInfoList == null || modisInfoList.size() == 0) continue;
-            FireGrid fg = new FireGrid();
+            AreaCalculator fg = areaEngine.create();
             // Calculate everyday fire size
             double size = fg.calcSize(modisInfoList);
-            Double[] centerpoint = fg.centerPoint;
-            multiDaysSize.put(d, size);
-            multiDaysSizeCenterPoint.put(d,centerpoint);
+            Double[] centerpoint = fg.getCenterPoint();
+            series.put(startEndDatePixelInfo.startDay + d, size, centerpoint[0], centerpoint[1]);
+            days++;
         }
-        if (multiDaysSize == null || multiDaysSize.size() == 0) {
-            return null;
+        // Calculate peak date, max size, average size, average increasing rate and average decreasing rate
+        // and create new MergedInfo object to load the result
+        return days == 0 ? null : toMergedInfo(occurInfo, series);
+    }
+
+    void setStore(ModisColumnStore store) {
+        this.store = store;
+        df = new DataFinder(store);
+        sizeCache = new FireSizeCache(store, FireSizeCache.DEFAULT_CAPACITY, areaEngine);
+    }
+
+    /**
+     * Same steps as mergeOneOccurrence, but the daily fire pixels are index ranges of the column store
+     * @param occurInfo
+     * @return MergedInfo
+     */
+    MergedInfo mergeOneOccurrenceFromColumns (OccurInfo occurInfo) {
+        StartEndDateRangeInfo startEndDateRangeInfo = df.getStartToEndFirePixelRangesByOccurrence(occurInfo.lat, occurInfo.lng, occurInfo.day);
+        if (startEndDateRangeInfo == null) return null;
+        return mergeRanges(occurInfo, startEndDateRangeInfo);
+    }
+
+    /**
+     * Steps 2 and 3 of mergeOneOccurrenceFromColumns, on the fire found by the column store finder
+     * @param occurInfo
+     * @param startEndDateRangeInfo start day, end day and daily pixel ranges of the fire
+     * @return MergedInfo, or null if the fire lasted a single day
+     */
+    MergedInfo mergeRanges(OccurInfo occurInfo, StartEndDateRangeInfo startEndDateRangeInfo) {
+        FireTimeSeries series = calculator.series;
+        series.reset(startEndDateRangeInfo.startDay, startEndDateRangeInfo.endDay);
+        int[] ranges = startEndDateRangeInfo.multipleDaysSelectRange;
+        for (int d = 0; d < series.length; d++) {
+            // Calculate everyday fire size (cached: many occurrences share the same fire)
+            double[] size = sizeCache.sizeOfRange(ranges[2 * d], ranges[2 * d + 1]);
+            series.put(startEndDateRangeInfo.startDay + d, size[0], size[1], size[2]);
+        }
+        return toMergedInfo(occurInfo, series);
+    }
+
+    /**
+     * Same steps as mergeOneOccurrence, but the fire is the precomputed track of the occurrence:
+     * its start date, end date and daily pixels are read from the store's FireTracks
+     * @param occurInfo
+     * @return MergedInfo
+     */
+    MergedInfo mergeOneOccurrenceFromTrack (OccurInfo occurInfo) {
+        int track = df.getFireTrackByOccurrence(occurInfo.lat, occurInfo.lng, occurInfo.day);
+        if (track < 0) return null;
+        FireTracks tracks = store.tracks();
+        // the days of a track are consecutive epoch days
+        FireTimeSeries series = calculator.series;
+        series.reset(tracks.trackFirstDay[track], tracks.trackLastDay[track]);
+        for (int s = tracks.trackSegment[track]; s < tracks.trackSegment[track + 1]; s++) {
+            double[] size = sizeCache.sizeOfSegment(s);
+            series.put(tracks.segmentDay[s], size[0], size[1], size[2]);
         }
-        if (startEndDatePixelInfo.startDate.equals(startEndDatePixelInfo.endDate)) {
+        return toMergedInfo(occurInfo, series);
+    }
+
+    /**
+     * Step3 of mergeOneOccurrence: peak date, max size, average size, average rates and movement direction
+     * of the filled time series of the fire
+     * @return MergedInfo, or null if the fire lasted a single day
+     */
+    MergedInfo toMergedInfo(OccurInfo occurInfo, FireTimeSeries series) {
+        if (series.length == 1) {
+            if (PipelineStats.ENABLED) PipelineStats.MERGE.singleDay.increment();
             return null;
         }
-        // Calculate peak date, max size, average size, average increasing rate and average decreasing rate
-        CalculatorInfo calculatorInfo = calculator.getCalcInfo(startEndDatePixelInfo.startDate, startEndDatePixelInfo.endDate, multiDaysSize, multiDaysSizeCenterPoint);
-        // Create new MergedInfo object to load the result
-        MergedInfo res = new MergedInfo(occurInfo.lat, occurInfo.lng, occurInfo.date, startEndDatePixelInfo.startDate, startEndDatePixelInfo.endDate,
+        CalculatorInfo calculatorInfo = calculator.getCalcInfo(series);
+        return new MergedInfo(occurInfo.lat, occurInfo.lng, occurInfo.date, MyDate.fromEpochDay(series.startDay), MyDate.fromEpochDay(series.startDay + series.length - 1),
         calculatorInfo.peakDate, calculatorInfo.maxSize, calculatorInfo.aveSize, calculatorInfo.aveIncreaseRate, calculatorInfo.aveDecreaseRate, calculatorInfo.movementDirection, occurInfo);
-        return res;
+    }
+
+    /**
+     * Create a Combiner for one worker thread: it shares the read-only store and the (lock-striped) size cache,
+     * but has its own DataFinder and Calculator, whose fields change on every call
+     * @return Combiner confined to one thread
+     */
+    Combiner worker() {
+        Combiner w = new Combiner();
+        w.store = store;
+        w.df = store != null ? new DataFinder(store) : new DataFinder();
+        w.sizeCache = sizeCache;
+        w.useTracks = useTracks;
+        w.areaEngine = areaEngine;
+        return w;
+    }
+
+    /**
+     * Merge all the occurrences in parallel on the given pool. Every worker thread uses its own Combiner (see worker())
+     * and the results keep the order of the input, so the output is the same as merging one occurrence at a time.
+     * @param occurInfoList
+     * @param pool
+     * @return one MergedInfo (or null if no fire is found) per occurrence, in input order
+     */
+    List<MergedInfo> mergeAll(List<OccurInfo> occurInfoList, ForkJoinPool pool) {
+        long t = PipelineStats.start();
+        ThreadLocal<Combiner> workers = ThreadLocal.withInitial(this::worker);
+        MergedInfo[] res = new MergedInfo[occurInfoList.size()];
+        try {
+            pool.submit(() -> IntStream.range(0, res.length).parallel()
+                    .forEach(i -> res[i] = workers.get().mergeOneOccurrence(occurInfoList.get(i)))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("merge interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("merge failed", e.getCause());
+        }
+        if (PipelineStats.ENABLED) PipelineStats.MERGE.merged(res, t);
+        return Arrays.asList(res);
     }
 
     /**
      * Merge Modis Data and Canadian Dataset and write the result into csv file
+     * @param resume continue after the last checkpoint of an earlier run
+     */
+    void mergeAndWriteToCSV(boolean resume) {
+        mergeAndWriteToCSV("data/modis_2009_2018_Canada.csv", "data/final_2009_2018_all_columns.csv", "output/merged.csv", resume);
+    }
+
+    /**
+     * Merge Modis Data and Canadian Dataset and write the result into csv file, with checkpoints.
+     * Occurrences are merged in batches of CHECKPOINT_BATCH_SIZE on all cores. After each batch its rows are forced to
+     * disk and a MergeCheckpoint next to the output records how many occurrences are done and how long the output is,
+     * so a crash loses at most one batch.
+     * With resume, a run that crashed or was killed continues after its last checkpoint (rows written after it are cut off)
+     * if the input files and the settings are the same, and starts over otherwise.
+     * A finished run leaves a checkpoint covering all the occurrences, so resuming it writes nothing.
+     * @param modisFileName
+     * @param occurrenceFileName
+     * @param outputFileName
+     * @param resume continue after the last checkpoint of outputFileName
      */
-    void mergeAndWriteToCSV() {
+    void mergeAndWriteToCSV(String modisFileName, String occurrenceFileName, String outputFileName, boolean resume) {
         try {
-            ModisFileReader modisFileReader = new ModisFileReader();
-            // Read Modis Data
-            modisFileReader.read("data/modis_2009_2018_Canada.csv");
+            MergeCheckpoint checkpoint = new MergeCheckpoint(FileFingerprint.of(Paths.get(modisFileName)),
+                    FileFingerprint.of(Paths.get(occurrenceFileName)), areaEngine, useTracks);
+            Path checkpointPath = MergeCheckpoint.pathOf(outputFileName);
+            MergeCheckpoint done = resume ? MergeCheckpoint.read(checkpointPath, checkpoint) : null;
+            Path output = Paths.get(outputFileName);
+            if (done != null && (!Files.isRegularFile(output) || Files.size(output) < done.outputBytes)) {
+                done = null; //the output is gone or shorter than checkpointed
+            }
+            if (resume && done == null) {
+                System.out.println("no checkpoint of the same inputs and output for " + outputFileName + ", starting over");
+            }
+            // Read Modis Data into the column store
+            setStore(ModisFileReader.readColumnsCached(modisFileName));
             // Read Occurrence Data
-            OccurrenceFileReader.read("data/final_2009_2018_all_columns.csv");
-            List<MergedInfo> mergedInfoList = new ArrayList<>();
-            Date prev = OccurrenceFileReader.occurInfoList.get(0).date;
-            // Merge data: iterating OccurInfo and calling mergeOneOccurrence()
-            for (OccurInfo occurInfo : OccurrenceFileReader.occurInfoList) {
-                MergedInfo mergedInfo = mergeOneOccurrence(occurInfo);
-                mergedInfoList.add(mergedInfo);
-                if (mergedInfo == null) continue;
-                if (!occurInfo.date.equals(prev)) {
-                    System.out.println("merged: " + mergedInfo.reportDate.toString());
-                    prev = occurInfo.date;
+            OccurrenceFileReader.readCached(occurrenceFileName);
+            List<OccurInfo> occurInfoList = OccurrenceFileReader.occurInfoList;
+            // csv column name: same as the order of MergedInfo and OccurInfo
+            MergedInfoWriter csvWriter;
+            if (done != null) {
+                System.out.println("resuming after " + done);
+                checkpoint = done;
+                csvWriter = MergedInfoWriter.append(outputFileName, MergedInfoWriter.Format.CSV, done.outputBytes);
+            } else {
+                csvWriter = new MergedInfoWriter(outputFileName, MergedInfoWriter.Format.CSV);
+            }
+            try (MergedInfoWriter writer = csvWriter) {
+                Date prev = null;
+                for (int from = checkpoint.occurrences; from < occurInfoList.size(); from += CHECKPOINT_BATCH_SIZE) {
+                    int to = Math.min(from + CHECKPOINT_BATCH_SIZE, occurInfoList.size());
+                    // Merge data: calling mergeOneOccurrence() for every OccurInfo of the batch on all cores
+                    List<MergedInfo> mergedInfoList = mergeAll(occurInfoList.subList(from, to), ForkJoinPool.commonPool());
+                    long t = PipelineStats.start();
+                    int rows = 0;
+                    for (MergedInfo mergedInfo : mergedInfoList) {
+                        if (mergedInfo == null) continue;
+                        writer.write(mergedInfo);
+                        rows++;
+                        if (!mergedInfo.reportDate.equals(prev)) {
+                            System.out.println("merged: " + mergedInfo.reportDate.toString());
+                            prev = mergedInfo.reportDate;
+                        }
+                    }
+                    // the rows must be on disk before the checkpoint says they are
+                    writer.sync();
+                    if (PipelineStats.ENABLED) PipelineStats.MERGE.written(rows, t);
+                    checkpoint.occurrences = to;
+                    checkpoint.outputBytes = writer.position();
+                    checkpoint.rows += rows;
+                    checkpoint.write(checkpointPath);
                 }
             }
-            // Write merged output to csv file
-            // csv column name: same as the order of MergedInfo and OccurInfo
-            FileWriter csvWriter = new FileWriter("output/merged.csv");
-            csvWriter.append("lat");
-            csvWriter.append(",");
-            csvWriter.append("lng");
-            csvWriter.append(",");
-            csvWriter.append("reportDate");
-            csvWriter.append(",");
-            csvWriter.append("startDate");
-            csvWriter.append(",");
-            csvWriter.append("endDate");
-            csvWriter.append(",");
-            csvWriter.append("peakDate");
-            csvWriter.append(",");
-            csvWriter.append("duration");
-            csvWriter.append(",");
-            csvWriter.append("maxSize");
-            csvWriter.append(",");
-            csvWriter.append("aveSize");
-            csvWriter.append(",");
-            csvWriter.append("increaseSpreadRate");
-            csvWriter.append(",");
-            csvWriter.append("decreaseSpreadRate");
-            csvWriter.append(",");
-            csvWriter.append("movementDirection");
-            csvWriter.append(",");
-            csvWriter.append("movementDirectionNum");
-
-            csvWriter.append(",");
-            csvWriter.append("temp");
-            csvWriter.append(",");
-            csvWriter.append("td");
-            csvWriter.append(",");
-            csvWriter.append("rh");
-            csvWriter.append(",");
-            csvWriter.append("ws");
-            csvWriter.append(",");
-            csvWriter.append("wg");
-            csvWriter.append(",");
-            csvWriter.append("wdir");
-            csvWriter.append(",");
-            csvWriter.append("pres");
-            csvWriter.append(",");
-            csvWriter.append("vis");
-            csvWriter.append(",");
-            csvWriter.append("precip");
-            csvWriter.append(",");
-            csvWriter.append("rndays");
-            csvWriter.append(",");
-            csvWriter.append("ffmc");
-            csvWriter.append(",");
-            csvWriter.append("dmc");
-            csvWriter.append(",");
-            csvWriter.append("dc");
-            csvWriter.append(",");
-            csvWriter.append("bui");
-            csvWriter.append(",");
-            csvWriter.append("isi");
-            csvWriter.append(",");
-            csvWriter.append("fwi");
-            csvWriter.append(",");
-            csvWriter.append("dsr");
-            csvWriter.append("\n");
+            System.out.println(sizeCache);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Streaming version of mergeAndWriteToCSV: occurrence rows are read lazily, merged in batches of
+     * STREAM_BATCH_SIZE on all cores, and each batch is written and flushed right away.
+     * The output format follows the file extension (see MergedInfoWriter.Format.forFileName).
+     * Only the column store and one batch are in memory, whatever the size of the occurrence file.
+     * @param modisFileName
+     * @param occurrenceFileName
+     * @param outputFileName
+     */
+    void mergeAndWriteToCSVStreaming(String modisFileName, String occurrenceFileName, String outputFileName) {
+        try {
+            setStore(ModisFileReader.readColumnsCached(modisFileName));
+            try (OccurrenceFileReader.OccurrenceIterator occurrences = OccurrenceFileReader.open(occurrenceFileName);
+                 MergedInfoWriter csvWriter = new MergedInfoWriter(outputFileName)) {
+                List<OccurInfo> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+                Date prev = null;
+                while (occurrences.hasNext()) {
+                    batch.clear();
+                    while (occurrences.hasNext() && batch.size() < STREAM_BATCH_SIZE) {
+                        batch.add(occurrences.next());
+                    }
+                    List<MergedInfo> mergedInfoList = mergeAll(batch, ForkJoinPool.commonPool());
+                    long t = PipelineStats.start();
+                    int rows = 0;
+                    for (MergedInfo mergedInfo : mergedInfoList) {
+                        if (mergedInfo == null) continue;
+                        csvWriter.write(mergedInfo);
+                        rows++;
+                        if (!mergedInfo.reportDate.equals(prev)) {
+                            System.out.println("merged: " + mergedInfo.reportDate.toString());
+                            prev = mergedInfo.reportDate;
+                        }
+                    }
+                    csvWriter.flush();
+                    if (PipelineStats.ENABLED) PipelineStats.MERGE.written(rows, t);
+                }
+            }
+            System.out.println(sizeCache);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Merge like mergeAndWriteToCSV, but write the result as a binary columnar file (see MergedColumns)
+     * @param modisFileName
+     * @param occurrenceFileName
+     * @param outputFileName
+     * @param compress deflate-compress every column
+     */
+    void mergeAndWriteColumns(String modisFileName, String occurrenceFileName, String outputFileName, boolean compress) {
+        try {
+            setStore(ModisFileReader.readColumnsCached(modisFileName));
+            OccurrenceFileReader.readCached(occurrenceFileName);
+            List<MergedInfo> mergedInfoList = mergeAll(OccurrenceFileReader.occurInfoList, ForkJoinPool.commonPool());
+            System.out.println(sizeCache);
+            long t = PipelineStats.start();
+            MergedColumns.Writer columnWriter = new MergedColumns.Writer();
+            if (compress) {
+                columnWriter.compressAll();
+            }
             for (MergedInfo mergedInfo : mergedInfoList) {
                 if (mergedInfo == null) continue;
-                csvWriter.append(mergedInfo.lat.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.lng.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.reportDate.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.startDate.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.endDate.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.peakDate.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.duration.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.maxSize.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.aveSize.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.increaseSpreadRate.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.decreaseSpreadRate.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.movementDirection);
-                csvWriter.append(",");
-                if (mergedInfo.movementDirection == "NW") {
-                    csvWriter.append("0");
-                } else if (mergedInfo.movementDirection == "NE") {
-                    csvWriter.append("1");
-                } else if (mergedInfo.movementDirection == "SW") {
-                    csvWriter.append("2");
-                } else {
-                    csvWriter.append("3");
-                }
-
-                //write weather data from occurInfo
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.temp.toString());
-
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.td.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.rh.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.ws.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.wg.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.wdir.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.pres.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.vis.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.precip.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.rndays.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.ffmc.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.dmc.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.dc.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.bui.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.isi.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.fwi.toString());
-                csvWriter.append(",");
-                csvWriter.append(mergedInfo.occurInfo.dsr.toString());
-
-                csvWriter.append("\n");
+                columnWriter.add(mergedInfo);
             }
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            columnWriter.write(Paths.get(outputFileName));
+            if (PipelineStats.ENABLED) PipelineStats.MERGE.written(columnWriter.rows(), t);
+            System.out.println("wrote " + columnWriter.rows() + " rows to " + outputFileName);
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
 
+    /**
+     * Write the burned area of every fire track of the MODIS file, one row per track and day:
+     * the day's area, the area burned that day for the first time and the cumulative burned area (see CumulativeArea)
+     * @param modisFileName
+     * @param outputFileName
+     */
+    void writeCumulativeSizes(String modisFileName, String outputFileName) {
+        try {
+            setStore(ModisFileReader.readColumnsCached(modisFileName));
+            FireTracks tracks = store.tracks();
+            CumulativeArea area = new CumulativeArea();
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFileName))) {
+                writer.write("track,date,area,newly_burned,cumulative\n");
+                for (int t = 0; t < tracks.trackCount; t++) {
+                    area.ofTrack(store, t);
+                    for (int d = 0; d < area.days; d++) {
+                        int day = tracks.segmentDay[tracks.trackSegment[t] + d];
+                        writer.write(t + "," + LocalDate.ofEpochDay(day) + "," + area.dailySize[d] + ","
+                                + area.newlyBurned[d] + "," + area.cumulative[d] + "\n");
+                    }
+                }
+            }
+            System.out.println("wrote " + tracks.trackCount + " tracks to " + outputFileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public static void main(String[] args) {
         Combiner combiner = new Combiner();
-        combiner.mergeAndWriteToCSV();
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            // exact union area of the pixels instead of the 1 km grid
+            combiner.areaEngine = AreaCalculator.Engine.SWEEP;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        } else if (args.length > 0 && args[0].equals("--quadtree")) {
+            // quadtree coverage at the resolution of the sensor (MODIS 1 km, VIIRS 375 m)
+            combiner.areaEngine = AreaCalculator.Engine.QUADTREE;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        boolean resume = args.length > 0 && args[args.length - 1].equals("--resume");
+        if (resume) {
+            args = Arrays.copyOf(args, args.length - 1);
+        }
+        if (args.length == 4 && args[0].equals("--csv")) {
+            // --csv <modis csv> <occurrence csv> <output csv> [--resume]
+            combiner.mergeAndWriteToCSV(args[1], args[2], args[3], resume);
+        } else if (args.length >= 5 && args[0].equals("--append")) {
+            // --append <detection store dir> <occurrence csv> <output csv> <NRT csv>...
+            try {
+                IncrementalMerge incremental = new IncrementalMerge(new DetectionStore(Paths.get(args[1])), combiner.areaEngine);
+                incremental.refresh(Arrays.asList(args).subList(4, args.length), args[2], args[3]);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (args.length == 4 && args[0].equals("--stream")) {
+            // --stream <modis csv> <occurrence csv> <output csv>
+            combiner.mergeAndWriteToCSVStreaming(args[1], args[2], args[3]);
+        } else if (args.length >= 4 && args[0].equals("--columns")) {
+            // --columns <modis csv> <occurrence csv> <output file> [--deflate]
+            combiner.mergeAndWriteColumns(args[1], args[2], args[3], args.length > 4 && args[4].equals("--deflate"));
+        } else if (args.length == 3 && args[0].equals("--cumulative")) {
+            // --cumulative <modis csv> <output csv>
+            combiner.writeCumulativeSizes(args[1], args[2]);
+        } else {
+            // [--resume]: continue the default merge after its last checkpoint
+            combiner.mergeAndWriteToCSV(resume);
+        }
+        if (PipelineStats.ENABLED) {
+            // -Dwildfire.stats=true: where the time of the run went
+            System.out.println(PipelineStats.report());
+        }
     }
 }
 
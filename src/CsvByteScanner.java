@@ -0,0 +1,188 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class scans comma separated lines directly from a (memory-mapped) ByteBuffer.
+ * nextLine() only records where each field starts and ends, and the getters parse numbers and dates
+ * straight from the bytes, so no String is created for a row.
+ * Like String.split(","), quotes are not handled.
+ */
+public class CsvByteScanner {
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final ByteBuffer buf;
+    private int pos;
+    private final int limit;
+    int fieldCount;
+    int[] fieldStart = new int[64];
+    int[] fieldEnd = new int[64];
+
+    /**
+     * @param buf bytes to scan
+     * @param pos index of the first byte to scan
+     * @param limit index after the last byte to scan
+     */
+    CsvByteScanner(ByteBuffer buf, int pos, int limit) {
+        this.buf = buf;
+        this.pos = pos;
+        this.limit = limit;
+    }
+
+    boolean hasNextLine() {
+        return pos < limit;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    /**
+     * Split the next line into fields. The line ending ("\n" or "\r\n") is skipped.
+     * @return number of fields of the line
+     */
+    int nextLine() {
+        fieldCount = 0;
+        int start = pos;
+        int i = pos;
+        while (i < limit) {
+            byte c = buf.get(i);
+            if (c == '\n') break;
+            if (c == ',') {
+                addField(start, i);
+                start = i + 1;
+            }
+            i++;
+        }
+        int end = i;
+        if (end > start && buf.get(end - 1) == '\r') end--;
+        addField(start, end);
+        pos = i + 1;
+        return fieldCount;
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+            fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldCount++;
+    }
+
+    boolean isEmpty(int field) {
+        return field >= fieldCount || fieldStart[field] == fieldEnd[field];
+    }
+
+    byte firstByte(int field) {
+        return isEmpty(field) ? 0 : buf.get(fieldStart[field]);
+    }
+
+    String getString(int field) {
+        if (isEmpty(field)) return "";
+        byte[] bytes = new byte[fieldEnd[field] - fieldStart[field]];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(fieldStart[field] + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Parse an int such as "0630" or "-12"
+     * @param field
+     * @return the parsed value
+     */
+    int getInt(int field) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        if (i == end) throw new NumberFormatException("empty int in field " + field);
+        int res = 0;
+        for (; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            res = res * 10 + d;
+        }
+        return negative ? -res : res;
+    }
+
+    /**
+     * Parse a decimal number. Numbers with at most 15 significant digits and a small exponent are parsed exactly
+     * from the bytes (a single correctly rounded division), others fall back to Double.parseDouble.
+     * @param field
+     * @return the parsed value, equal to Double.parseDouble of the field
+     */
+    double getDouble(int field) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean dot = false;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            byte c = buf.get(i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    if (++digits > 15) return slowDouble(field);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) exp10--;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                //exponent, NaN, Infinity or a malformed number
+                return slowDouble(field);
+            }
+        }
+        if (!anyDigit) return slowDouble(field);
+        double res;
+        if (exp10 == 0) {
+            res = mantissa;
+        } else if (exp10 >= -22) {
+            res = mantissa / POW10[-exp10];
+        } else {
+            return slowDouble(field);
+        }
+        return negative ? -res : res;
+    }
+
+    private double slowDouble(int field) {
+        return Double.parseDouble(getString(field));
+    }
+
+    /**
+     * Parse a yyyy-MM-dd date
+     * @param field
+     * @return days since 1970-01-01
+     */
+    int getEpochDay(int field) {
+        int s = fieldStart[field];
+        if (fieldEnd[field] - s != 10 || buf.get(s + 4) != '-' || buf.get(s + 7) != '-') {
+            throw new NumberFormatException("not a yyyy-MM-dd date: \"" + getString(field) + "\"");
+        }
+        int year = digit(s) * 1000 + digit(s + 1) * 100 + digit(s + 2) * 10 + digit(s + 3);
+        int month = digit(s + 5) * 10 + digit(s + 6);
+        int day = digit(s + 8) * 10 + digit(s + 9);
+        return MyDate.epochDay(year, month, day);
+    }
+
+    private int digit(int i) {
+        int d = buf.get(i) - '0';
+        if (d < 0 || d > 9) throw new NumberFormatException("not a digit at byte " + i);
+        return d;
+    }
+}
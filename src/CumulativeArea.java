@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Cumulative burned area of a fire over its lifetime, one day at a time.
+ * Every day's pixels are added on top of the previous days' pixels on one grid spanning the whole fire
+ * (same coverage rules as FireGrid), and the grid journal (see CellGrid.startJournal) gives both the area that the day
+ * added and the area of the day's own pixels, so each day's pixels are rasterized once.
+ * After each addDay: dailySize is the area of the day's own pixels, newlyBurned the area burned that day for
+ * the first time and cumulative the total burned area so far (the sum of newlyBurned).
+ * All three are measured on the lifetime grid, which is aligned on the whole fire, so dailySize can differ slightly
+ * from FireGrid.calcSize of the day alone (aligned on the day); on the first day it equals cumulative.
+ */
+public class CumulativeArea {
+    private FlatGrid flatGrid;
+    private SparseGrid sparseGrid;
+    private CellGrid grid;
+    private ModisColumnStore store;
+
+    int days;
+    double[] dailySize = new double[16];
+    double[] newlyBurned = new double[16];
+    double[] cumulative = new double[16];
+
+    /**
+     * Start a new fire
+     * @param store
+     * @param pixels pixel indices of the whole fire (all days)
+     * @param from position of the first pixel index in pixels
+     * @param to position after the last pixel index in pixels
+     */
+    void reset(ModisColumnStore store, int[] pixels, int from, int to) {
+        this.store = store;
+        days = 0;
+        double minLatitude = Double.MAX_VALUE;
+        double maxLatitude = -(Double.MAX_VALUE-1);
+        double minLongitude = Double.MAX_VALUE;
+        double maxLongitude = -(Double.MAX_VALUE-1);
+        for (int p = from; p < to; p++) {
+            double lat = store.lat[pixels[p]];
+            double lon = store.lng[pixels[p]];
+            if (lat < minLatitude) minLatitude = lat;
+            if (lat > maxLatitude) maxLatitude = lat;
+            if (lon < minLongitude) minLongitude = lon;
+            if (lon > maxLongitude) maxLongitude = lon;
+        }
+        if (from >= to) {
+            minLatitude = maxLatitude = minLongitude = maxLongitude = 0;
+        }
+        //same grid size as FireGrid.gridForThread, but owned by this object: the pooled grids size the single days
+        int rowEnd = (int) Math.ceil((maxLongitude - minLongitude) * 2 * Math.PI * FireGrid.RADIUS / 360);
+        int colEnd = (int) Math.ceil((maxLatitude - minLatitude) * 2 * Math.PI * FireGrid.RADIUS / 360);
+        if (FireGrid.isSparse(minLatitude, minLongitude, maxLatitude, maxLongitude, to - from)) {
+            if (sparseGrid == null) sparseGrid = new SparseGrid();
+            grid = sparseGrid;
+        } else {
+            if (flatGrid == null) flatGrid = new FlatGrid();
+            grid = flatGrid;
+        }
+        grid.reset(minLatitude, minLongitude, rowEnd + 1, colEnd + 1);
+    }
+
+    /**
+     * Add the next day of the fire
+     * @param pixels pixel indices
+     * @param from position of the first pixel index of the day in pixels
+     * @param to position after the last pixel index of the day in pixels
+     */
+    void addDay(int[] pixels, int from, int to) {
+        if (days == dailySize.length) {
+            dailySize = Arrays.copyOf(dailySize, days * 2);
+            newlyBurned = Arrays.copyOf(newlyBurned, days * 2);
+            cumulative = Arrays.copyOf(cumulative, days * 2);
+        }
+        grid.startJournal();
+        for (int p = from; p < to; p++) {
+            int i = pixels[p];
+            grid.addPixel(store.lat[i], store.lng[i], store.scan[i], store.track[i]);
+        }
+        newlyBurned[days] = grid.endJournal();
+        dailySize[days] = grid.journalOwnSize;
+        cumulative[days] = (days == 0 ? 0 : cumulative[days - 1]) + newlyBurned[days];
+        days++;
+    }
+
+    /**
+     * Size every day of a fire track of store.tracks()
+     * @param track track ID
+     */
+    void ofTrack(ModisColumnStore store, int track) {
+        FireTracks tracks = store.tracks();
+        int first = tracks.trackSegment[track];
+        int end = tracks.trackSegment[track + 1];
+        reset(store, tracks.trackPixels, tracks.segmentStart[first], tracks.segmentStart[end]);
+        for (int s = first; s < end; s++) {
+            addDay(tracks.trackPixels, tracks.segmentStart[s], tracks.segmentStart[s + 1]);
+        }
+    }
+}
@@ -1,9 +1,29 @@
 import java.util.*;
 
 public class DataFinder {
+    /**
+     * thresholds (in degrees) of the general-use finder methods
+     */
+    static final double FIRST_REC_THRESHOLD = 2;
+    static final double ADJACENT_REC_THRESHOLD = 1.5;
     List<List<String>> selectedData;
-    TreeMap<Date, List<ModisInfo>> multipleDaysSelectDataMap = new TreeMap<>();
     int duration = -1;
+    /**
+     * columnar pixel data used by the *Range* methods, which return index ranges instead of ModisInfo lists
+     */
+    ModisColumnStore store;
+    int[] clusterBuffer;
+    /**
+     * days searched and pixels compared by the current lookup, counted for PipelineStats when it is enabled
+     */
+    int walkedDays;
+    long examinedPixels;
+
+    DataFinder() {}
+
+    DataFinder(ModisColumnStore store) {
+        this.store = store;
+    }
 
     /**
      * call this to get fire pixels by using default thresholds
@@ -29,8 +49,16 @@ public class DataFinder {
      * @return
      */
     List<ModisInfo> getFirePixelsByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, Date date) {
+        return getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, MyDate.toEpochDay(date));
+    }
 
-        List<ModisInfo> rawData = ModisFileReader.dateModisInfoMap.get(new Date(date.getTime()));
+    /**
+     * Same as getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, date) on an epoch day
+     * @param epochDay day to search, in days since 1970-01-01
+     */
+    List<ModisInfo> getFirePixelsByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, int epochDay) {
+        if (PipelineStats.ENABLED) walkedDays++;
+        List<ModisInfo> rawData = ModisFileReader.getDay(epochDay);
         //no raw data
         if (rawData == null) {
             return null;
@@ -70,6 +98,7 @@ public class DataFinder {
             curLat = rawData.get(i).lat;
             curLng = rawData.get(i).lng;
         }
+        if (PipelineStats.ENABLED) examinedPixels += i + 1;
         //no starting pixel found
         if (!found) {
             return null;
@@ -84,18 +113,17 @@ public class DataFinder {
 
     //get fire pixels for a fire occurrence for each day in its duration
     StartEndDatePixelInfo getMultipleDaysFirePixelsByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, Date date, int elapsedDays) {
-        Date startDate = MyDate.getNDaysBefore(date, elapsedDays);
-        Date endDate = MyDate.getNDaysAfter(date, elapsedDays);
+        int day = MyDate.toEpochDay(date);
+        int startDay = day - elapsedDays;
+        int endDay = day + elapsedDays;
 
-        Date currDate = startDate;
-        TreeMap<Date, List<ModisInfo>> multipleDaysSelectData = new TreeMap<>();
+        List<List<ModisInfo>> multipleDaysSelectData = new ArrayList<>();
         //get everyday's fire pixels
-        while (currDate.before(endDate)) {
-            multipleDaysSelectData.put(currDate, getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, date));
-            currDate = MyDate.getOneDayAfter(currDate);
+        for (int currDay = startDay; currDay < endDay; currDay++) {
+            multipleDaysSelectData.add(getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, day));
         }
-        StartEndDatePixelInfo res = new StartEndDatePixelInfo(multipleDaysSelectData, startDate, endDate);
-        return res;
+        multipleDaysSelectData.add(null); //the end day itself is not searched
+        return new StartEndDatePixelInfo(multipleDaysSelectData, startDay, endDay);
     }
 
     //get fire pixels for a fire occurrence for each day in its duration using default thresholds
@@ -106,7 +134,11 @@ public class DataFinder {
     StartEndDatePixelInfo getStartToEndFirePixelsByOccurrence(double lat, double lng, Date date) {
         //1.1 0.2
         //2, 1.5
-        return getStartToEndFirePixelsByOccurrence(lat, lng, 2, 1.5, date);
+        return getStartToEndFirePixelsByOccurrence(lat, lng, FIRST_REC_THRESHOLD, ADJACENT_REC_THRESHOLD, MyDate.toEpochDay(date));
+    }
+
+    StartEndDatePixelInfo getStartToEndFirePixelsByOccurrence(double lat, double lng, int epochDay) {
+        return getStartToEndFirePixelsByOccurrence(lat, lng, FIRST_REC_THRESHOLD, ADJACENT_REC_THRESHOLD, epochDay);
     }
 
     /**
@@ -118,59 +150,250 @@ public class DataFinder {
      * Similarly, by going forward in time,
      * we can store all the pixels on the following days that belong to the same fire and find the actual end date of the fire.
      * And we can calculate the duration of the fire.
+     * Days are epoch days, so going back or forward in time is an integer decrement or increment.
      * @param lat
      * @param lng
      * @param firstRecThreshold
      * @param adjacentRecThreshold
-     * @param date
+     * @param epochDay occurrence date in days since 1970-01-01
      * @return
      */
-    StartEndDatePixelInfo getStartToEndFirePixelsByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, Date date) {
-        multipleDaysSelectDataMap = new TreeMap<>();
-        Date currDate = new Date(date.getTime());
-        Date prevDate = new Date(date.getTime());
-
-        List<ModisInfo> curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDate);
-        if (curList == null || curList.size() == 0) return null;
+    StartEndDatePixelInfo getStartToEndFirePixelsByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, int epochDay) {
+        long t = PipelineStats.ENABLED ? startLookup() : 0;
+        int currDay = epochDay;
+        List<ModisInfo> curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
+        if (curList == null || curList.size() == 0) {
+            if (PipelineStats.ENABLED) PipelineStats.FINDER.lookup(walkedDays, examinedPixels, false, t);
+            return null;
+        }
         //go back in time
 //        go back in time one day at a time to repeat the previous method
 //        (getFirePixelsByOccurrence: that match fire pixels of a fire on a given date)
-//       and put all the pixels into the curList and stop on the date when no pixels are found in MODIS dataset,
-
+//       and put all the pixels into the list and stop on the date when no pixels are found in MODIS dataset,
+        List<List<ModisInfo>> multipleDaysSelectData = new ArrayList<>();
         while (curList != null) {
-            multipleDaysSelectDataMap.put(new Date(currDate.getTime()), curList);
-            prevDate = currDate;
-            currDate = MyDate.getOneDayBefore(currDate);
-
-            curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDate);
+            multipleDaysSelectData.add(curList);
+            currDay--;
+            curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
         }
-        // the prevDate in this loop is the actual start date of the fire.
-        Date startDate = new Date(prevDate.getTime());
-        currDate = new Date(date.getTime());
-        prevDate = new Date(date.getTime());
+        // the day after the last one found is the actual start date of the fire.
+        int startDay = currDay + 1;
+        Collections.reverse(multipleDaysSelectData);
         //go forward in time same process as finding the start date
-        curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDate);
+        currDay = epochDay + 1;
+        curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
         while (curList != null) {
-            multipleDaysSelectDataMap.put(new Date(currDate.getTime()), curList);
-            prevDate = currDate;
-            currDate = MyDate.getOneDayAfter(currDate);
+            multipleDaysSelectData.add(curList);
+            currDay++;
+            curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
+        }
+        int endDay = currDay - 1;
+        duration = endDay - startDay; //can add 1 to it
+        if (PipelineStats.ENABLED) PipelineStats.FINDER.lookup(walkedDays, examinedPixels, true, t);
+        return new StartEndDatePixelInfo(multipleDaysSelectData, startDay, endDay);
+    }
+
+    /**
+     * Same search as getFirePixelsByOccurrence but on the column store:
+     * the pixels of the fire are returned as an index range of the store, so no ModisInfo object is involved.
+     * @param lat
+     * @param lng
+     * @param firstRecThreshold first record in the day should be within the firstRecThreshold from the occurrence lat and lng
+     * @param adjacentRecThreshold 2 consecutive records in the day should be within adjacentRecThreshold to be considered in the same area
+     * @param epochDay day to search, in days since 1970-01-01
+     * @return {start, end} where end is exclusive, or null if no fire pixel is found
+     */
+    int[] getFirePixelRangeByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, int epochDay) {
+        if (PipelineStats.ENABLED) walkedDays++;
+        int k = store.dayIndex(epochDay);
+        //no raw data
+        if (k < 0) {
+            return null;
+        }
+        int from = store.dayOffsets[k];
+        int last = store.dayOffsets[k + 1] - 1;
+        double[] lats = store.lat;
+        double[] lngs = store.lng;
+        int i = from;
+        boolean found = false;
+        boolean enteredWhileLoop = false;
+        //find the starting record. first record within the firstRecThreshold from the occurrence lat and lng
+        if (store.spatialIndex != null) {
+            int first = store.spatialIndex.firstWithin(k, lat, lng, firstRecThreshold);
+            //like the scan below, stop at the last record of the day whether it matches or not
+            i = first < 0 ? last : Math.min(first, last);
+            enteredWhileLoop = i > from;
+        } else {
+            while (i < last && (Math.abs(lats[i] - lat) > firstRecThreshold || Math.abs(lngs[i] - lng) > firstRecThreshold)) {
+                enteredWhileLoop = true;
+                i++;
+            }
+        }
+        double curLat = lats[i];
+        double curLng = lngs[i];
+
+        int start;
+        if (enteredWhileLoop) {
+            start = --i;
+        } else {
+            start = i;
+        }
+        double prevLat = curLat;
+        double prevLng = curLng;
+        //find all the data in the same area by using adjacentRecThreshold
+        while (i < last && (Math.abs(curLat - prevLat) <= adjacentRecThreshold && Math.abs(curLng - prevLng) <= adjacentRecThreshold)) {
+            found = true;
+            prevLat = curLat;
+            prevLng = curLng;
+            i++;
+            curLat = lats[i];
+            curLng = lngs[i];
+        }
+        //the spatial index skips the pixels before the starting record
+        if (PipelineStats.ENABLED) examinedPixels += i - (store.spatialIndex != null ? start : from) + 1;
+        //no starting pixel found
+        if (!found) {
+            return null;
+        }
+        int end = i - 1;
+        //no starting pixel found
+        if (start == end) {
+            return null;  //no record
+        }
+        return new int[] {start, end + 1};
+    }
+
+    //general use on the column store:
+    StartEndDateRangeInfo getStartToEndFirePixelRangesByOccurrence(double lat, double lng, int epochDay) {
+        return getStartToEndFirePixelRangesByOccurrence(lat, lng, FIRST_REC_THRESHOLD, ADJACENT_REC_THRESHOLD, epochDay);
+    }
+
+    /**
+     * Same walk as getStartToEndFirePixelsByOccurrence but on the column store.
+     * @param lat
+     * @param lng
+     * @param firstRecThreshold
+     * @param adjacentRecThreshold
+     * @param epochDay occurrence date in days since 1970-01-01
+     * @return start day, end day and the pixel index range of each day in between
+     */
+    StartEndDateRangeInfo getStartToEndFirePixelRangesByOccurrence(double lat, double lng, double firstRecThreshold, double adjacentRecThreshold, int epochDay) {
+        long t = PipelineStats.ENABLED ? startLookup() : 0;
+        int currDay = epochDay;
+        int[] curRange = getFirePixelRangeByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
+        if (curRange == null) {
+            if (PipelineStats.ENABLED) PipelineStats.FINDER.lookup(walkedDays, examinedPixels, false, t);
+            return null;
+        }
+        //go back in time, collecting the ranges from the occurrence day backwards
+        int[] backRanges = new int[16];
+        int back = 0;
+        while (curRange != null) {
+            if (2 * back + 2 > backRanges.length) backRanges = Arrays.copyOf(backRanges, backRanges.length * 2);
+            backRanges[2 * back] = curRange[0];
+            backRanges[2 * back + 1] = curRange[1];
+            back++;
+            currDay--;
+            curRange = getFirePixelRangeByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
+        }
+        int startDay = currDay + 1;
+        int[] dayRanges = new int[2 * back + 16];
+        for (int d = 0; d < back; d++) {
+            dayRanges[2 * d] = backRanges[2 * (back - 1 - d)];
+            dayRanges[2 * d + 1] = backRanges[2 * (back - 1 - d) + 1];
+        }
+        //go forward in time
+        currDay = epochDay + 1;
+        curRange = getFirePixelRangeByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
+        while (curRange != null) {
+            int d = currDay - startDay;
+            if (2 * d + 2 > dayRanges.length) dayRanges = Arrays.copyOf(dayRanges, dayRanges.length * 2);
+            dayRanges[2 * d] = curRange[0];
+            dayRanges[2 * d + 1] = curRange[1];
+            currDay++;
+            curRange = getFirePixelRangeByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDay);
+        }
+        int endDay = currDay - 1;
+        duration = endDay - startDay;
+        if (PipelineStats.ENABLED) PipelineStats.FINDER.lookup(walkedDays, examinedPixels, true, t);
+        return new StartEndDateRangeInfo(dayRanges, startDay, endDay);
+    }
 
-            curList = getFirePixelsByOccurrence(lat, lng, firstRecThreshold, adjacentRecThreshold, currDate);
+    /**
+     * Find the fire (cluster of the store's FireClusters) of an occurrence on a given day:
+     * the cluster of the pixel nearest to the occurrence among the pixels within firstRecThreshold.
+     * Unlike getFirePixelRangeByOccurrence this does not depend on the order of the rows in the input file.
+     * @param lat
+     * @param lng
+     * @param firstRecThreshold
+     * @param epochDay
+     * @return cluster ID, or -1 if there is no pixel within firstRecThreshold on that day
+     */
+    int getFireClusterByOccurrence(double lat, double lng, double firstRecThreshold, int epochDay) {
+        if (clusterBuffer == null) {
+            clusterBuffer = new int[store.maxDaySize()];
         }
-        Date endDate = prevDate;
-        duration = (int)(endDate.getTime() - startDate.getTime()) / Calendar.DATE; //can add 1 to it
-        StartEndDatePixelInfo res = new StartEndDatePixelInfo(multipleDaysSelectDataMap, startDate, endDate);
-        return res;
+        return store.clusters().nearestCluster(epochDay, lat, lng, firstRecThreshold, clusterBuffer);
+    }
+
+    int getFireClusterByOccurrence(double lat, double lng, int epochDay) {
+        return getFireClusterByOccurrence(lat, lng, FIRST_REC_THRESHOLD, epochDay);
+    }
+
+    /**
+     * Find the fire track (of the store's FireTracks) of an occurrence: the track of its cluster on the occurrence date.
+     * The start date, end date and daily pixels of the fire are then read from the track
+     * instead of walking backward and forward one day at a time.
+     * @param lat
+     * @param lng
+     * @param epochDay occurrence date in days since 1970-01-01
+     * @return track ID, or -1 if no fire is found on that day
+     */
+    int getFireTrackByOccurrence(double lat, double lng, int epochDay) {
+        long t = PipelineStats.start();
+        int cluster = getFireClusterByOccurrence(lat, lng, epochDay);
+        //one day is searched, through the spatial index (its pixels are not counted)
+        if (PipelineStats.ENABLED) PipelineStats.FINDER.lookup(1, 0, cluster >= 0, t);
+        return cluster < 0 ? -1 : store.tracks().trackOf[cluster];
+    }
+
+    /**
+     * Start counting the days and pixels of a lookup for PipelineStats
+     * @return start time in nanoseconds
+     */
+    private long startLookup() {
+        walkedDays = 0;
+        examinedPixels = 0;
+        return System.nanoTime();
     }
 }
 
 class StartEndDatePixelInfo {
-    TreeMap<Date, List<ModisInfo>> multipleDaysSelectData;
+    List<List<ModisInfo>> multipleDaysSelectData; //fire pixels of day startDay + d at index d
+    int startDay; //days since 1970-01-01
+    int endDay;
     Date startDate;
     Date endDate;
-    StartEndDatePixelInfo(TreeMap<Date, List<ModisInfo>> md, Date sd, Date ed) {
+    StartEndDatePixelInfo(List<List<ModisInfo>> md, int sd, int ed) {
         multipleDaysSelectData = md;
-        startDate = sd;
-        endDate = ed;
+        startDay = sd;
+        endDay = ed;
+        startDate = MyDate.fromEpochDay(sd);
+        endDate = MyDate.fromEpochDay(ed);
+    }
+}
+
+class StartEndDateRangeInfo {
+    int[] multipleDaysSelectRange; //pixel index range {start, end} in the column store of day startDay + d at 2d, 2d + 1
+    int startDay; //days since 1970-01-01
+    int endDay;
+    Date startDate;
+    Date endDate;
+    StartEndDateRangeInfo(int[] md, int sd, int ed) {
+        multipleDaysSelectRange = md;
+        startDay = sd;
+        endDay = ed;
+        startDate = MyDate.fromEpochDay(sd);
+        endDate = MyDate.fromEpochDay(ed);
     }
 }
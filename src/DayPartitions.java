@@ -0,0 +1,87 @@
+/**
+ * Dense day-partitioned index over items (pixels) sorted by day.
+ * Every epoch day between the first and the last day owns one partition: the contiguous item range
+ * [from(day), to(day)), which is empty for days without items. Partitions are found with one array lookup at
+ * day - firstDay, so there is no hashing, no search and no object per probe, and any range of days maps to one
+ * contiguous item range [from(firstDay), to(lastDay)) that callers read in place instead of copying.
+ */
+public class DayPartitions {
+    final int firstDay;
+    final int lastDay;
+    //number of items of the largest day, e.g. to size a scratch buffer for the items of any single day
+    final int maxLength;
+    //items of day d are [start[d - firstDay], start[d - firstDay + 1])
+    private final int[] start;
+    //position of day d in the sorted distinct days the index was built from, -1 for days without items
+    private final int[] rank;
+
+    /**
+     * @param days distinct days in ascending order
+     * @param dayOffsets items of days[k] are [dayOffsets[k], dayOffsets[k+1])
+     * @param dayCount number of distinct days
+     */
+    DayPartitions(int[] days, int[] dayOffsets, int dayCount) {
+        if (dayCount == 0) {
+            firstDay = 0;
+            lastDay = -1;
+            start = new int[] {0};
+            rank = new int[0];
+            maxLength = 0;
+            return;
+        }
+        firstDay = days[0];
+        lastDay = days[dayCount - 1];
+        int length = lastDay - firstDay + 1;
+        start = new int[length + 1];
+        rank = new int[length];
+        int k = 0;
+        int max = 0;
+        for (int d = 0; d < length; d++) {
+            if (k < dayCount && days[k] == firstDay + d) {
+                start[d] = dayOffsets[k];
+                max = Math.max(max, dayOffsets[k + 1] - dayOffsets[k]);
+                rank[d] = k++;
+            } else {
+                start[d] = dayOffsets[k]; //empty: starts where the next day with items starts
+                rank[d] = -1;
+            }
+        }
+        start[length] = dayOffsets[dayCount];
+        maxLength = max;
+    }
+
+    /**
+     * @param day epoch day
+     * @return position of the day among the days with items, or -1 if it has no items
+     */
+    int rank(int day) {
+        int d = day - firstDay;
+        return d < 0 || d >= rank.length ? -1 : rank[d];
+    }
+
+    /**
+     * @param day epoch day
+     * @return index of the first item of the day, or of the first item after it if the day has no items
+     */
+    int from(int day) {
+        int d = day - firstDay;
+        return d <= 0 ? start[0] : d >= rank.length ? start[rank.length] : start[d];
+    }
+
+    /**
+     * @param day epoch day
+     * @return index after the last item of the day, or of the first item after it if the day has no items
+     */
+    int to(int day) {
+        int d = day - firstDay + 1;
+        return d <= 0 ? start[0] : d >= rank.length ? start[rank.length] : start[d];
+    }
+
+    /**
+     * @param day epoch day
+     * @return number of items of the day
+     */
+    int length(int day) {
+        return to(day) - from(day);
+    }
+}
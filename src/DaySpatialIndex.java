@@ -0,0 +1,149 @@
+/**
+ * Per-day spatial index of a ModisColumnStore.
+ * The pixels of each day are put into a uniform lat/lng bucket grid covering that day's pixels,
+ * and the pixel indices of each bucket are kept in ascending (file) order.
+ * A query "pixels within X degrees of (lat, lng)" then only looks at the buckets overlapping the query square
+ * instead of scanning the whole day.
+ * The index is built once when the store is loaded and is read-only afterwards, so it can be shared by threads.
+ */
+public class DaySpatialIndex {
+    /**
+     * smallest bucket size in degrees; buckets get larger on days with few pixels spread over a wide area
+     */
+    static final double MIN_CELL_SIZE = 0.5;
+
+    final ModisColumnStore store;
+    //per day (same order as store.days)
+    double[] originLat;
+    double[] originLng;
+    double[] cellSize;
+    int[] rows;
+    int[] cols;
+    int[] cellBase; //index of the first bucket of the day in cellStart
+    //pixels of bucket c are pixels[cellStart[c]] .. pixels[cellStart[c+1]-1]
+    int[] cellStart;
+    int[] pixels;
+
+    DaySpatialIndex(ModisColumnStore store) {
+        this.store = store;
+        int dayCount = store.dayCount();
+        originLat = new double[dayCount];
+        originLng = new double[dayCount];
+        cellSize = new double[dayCount];
+        rows = new int[dayCount];
+        cols = new int[dayCount];
+        cellBase = new int[dayCount + 1];
+        long totalCells = 0;
+        for (int k = 0; k < dayCount; k++) {
+            int from = store.dayOffsets[k];
+            int to = store.dayOffsets[k + 1];
+            double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+            double minLng = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                minLat = Math.min(minLat, store.lat[i]);
+                maxLat = Math.max(maxLat, store.lat[i]);
+                minLng = Math.min(minLng, store.lng[i]);
+                maxLng = Math.max(maxLng, store.lng[i]);
+            }
+            //keep the number of buckets within a small multiple of the number of pixels
+            double size = Math.max(MIN_CELL_SIZE, Math.sqrt((maxLat - minLat) * (maxLng - minLng) / (4.0 * (to - from))));
+            originLat[k] = minLat;
+            originLng[k] = minLng;
+            cellSize[k] = size;
+            rows[k] = (int) ((maxLat - minLat) / size) + 1;
+            cols[k] = (int) ((maxLng - minLng) / size) + 1;
+            cellBase[k] = (int) totalCells;
+            totalCells += (long) rows[k] * cols[k];
+        }
+        cellBase[dayCount] = (int) totalCells;
+        cellStart = new int[(int) totalCells + 1];
+        pixels = new int[store.size];
+        //counting sort of the pixels by bucket, stable so each bucket stays in ascending pixel order
+        int[] cellOf = new int[store.size];
+        for (int k = 0; k < dayCount; k++) {
+            for (int i = store.dayOffsets[k]; i < store.dayOffsets[k + 1]; i++) {
+                cellOf[i] = cell(k, row(k, store.lat[i]), col(k, store.lng[i]));
+                cellStart[cellOf[i] + 1]++;
+            }
+        }
+        for (int c = 1; c < cellStart.length; c++) {
+            cellStart[c] += cellStart[c - 1];
+        }
+        int[] next = new int[(int) totalCells];
+        System.arraycopy(cellStart, 0, next, 0, next.length);
+        for (int i = 0; i < store.size; i++) {
+            pixels[next[cellOf[i]]++] = i;
+        }
+    }
+
+    private int row(int k, double lat) {
+        int r = (int) Math.floor((lat - originLat[k]) / cellSize[k]);
+        return Math.max(0, Math.min(rows[k] - 1, r));
+    }
+
+    private int col(int k, double lng) {
+        int c = (int) Math.floor((lng - originLng[k]) / cellSize[k]);
+        return Math.max(0, Math.min(cols[k] - 1, c));
+    }
+
+    private int cell(int k, int r, int c) {
+        return cellBase[k] + r * cols[k] + c;
+    }
+
+    /**
+     * Find the first pixel (in file order) of a day within a square around (lat, lng)
+     * @param dayIndex position of the day in store.days
+     * @param lat
+     * @param lng
+     * @param threshold half side of the square in degrees: |pixel lat - lat| <= threshold and |pixel lng - lng| <= threshold
+     * @return smallest pixel index inside the square, or -1 if there is none
+     */
+    int firstWithin(int dayIndex, double lat, double lng, double threshold) {
+        int k = dayIndex;
+        int best = -1;
+        int r0 = row(k, lat - threshold), r1 = row(k, lat + threshold);
+        int c0 = col(k, lng - threshold), c1 = col(k, lng + threshold);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = cell(k, r, c);
+                for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                    int i = pixels[p];
+                    if (best >= 0 && i >= best) break;
+                    if (Math.abs(store.lat[i] - lat) <= threshold && Math.abs(store.lng[i] - lng) <= threshold) {
+                        best = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Collect all the pixels of a day within a square around (lat, lng)
+     * @param dayIndex position of the day in store.days
+     * @param lat
+     * @param lng
+     * @param threshold half side of the square in degrees
+     * @param out receives the pixel indices (bucket by bucket, not sorted); must be large enough for the whole day
+     * @return number of pixels written to out
+     */
+    int within(int dayIndex, double lat, double lng, double threshold, int[] out) {
+        int k = dayIndex;
+        int n = 0;
+        int r0 = row(k, lat - threshold), r1 = row(k, lat + threshold);
+        int c0 = col(k, lng - threshold), c1 = col(k, lng + threshold);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = cell(k, r, c);
+                for (int p = cellStart[cell]; p < cellStart[cell + 1]; p++) {
+                    int i = pixels[p];
+                    if (Math.abs(store.lat[i] - lat) <= threshold && Math.abs(store.lng[i] - lng) <= threshold) {
+                        out[n++] = i;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persistent store of fire detections fed by daily near-real-time files (see IncrementalMerge):
+ * a directory with one ModisColumnStore snapshot per month (yyyy-MM.snapshot).
+ * Appending a feed only rewrites the months it touches and skips the detections that are already stored
+ * (NRT files cover the last 24 hours to 7 days, so most days are delivered several times), and loading only reads
+ * the months asked for, so a daily update costs as much as the new data and not as the whole history.
+ * New detections of a day go after the stored ones, so a store filled from consecutive files holds every day
+ * in the same order as one file with all the detections.
+ * The days that received new detections are journaled (pending.days) before the months are rewritten and stay
+ * pending until the merge that uses them is done, so a crash in between never loses a change.
+ */
+public class DetectionStore {
+    static final String SUFFIX = ".snapshot";
+    static final String PENDING = "pending.days";
+    //snapshots of the store are not made from one CSV file
+    private static final FileFingerprint NO_SOURCE = new FileFingerprint(0, 0, 0);
+
+    final Path dir;
+
+    DetectionStore(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * @return month number (year * 12 + month - 1) of an epoch day
+     */
+    static int monthOf(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * @return epoch day of the first day of a month number
+     */
+    static int firstDayOf(int month) {
+        return (int) LocalDate.of(month / 12, month % 12 + 1, 1).toEpochDay();
+    }
+
+    Path monthPath(int month) {
+        return dir.resolve(String.format("%04d-%02d", month / 12, month % 12 + 1) + SUFFIX);
+    }
+
+    /**
+     * @return month numbers of the stored months, ascending
+     */
+    int[] months() throws IOException {
+        List<Integer> res = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "[0-9][0-9][0-9][0-9]-[0-9][0-9]" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                res.add(Integer.parseInt(name.substring(0, 4)) * 12 + Integer.parseInt(name.substring(5, 7)) - 1);
+            }
+        }
+        return res.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * @return the detections of a month, sorted by day; empty if the month is not stored
+     */
+    ModisColumnStore readMonth(int month) throws IOException {
+        ModisColumnStore store = ModisColumnStore.readSnapshot(monthPath(month), NO_SOURCE);
+        if (store == null) {
+            if (Files.exists(monthPath(month))) {
+                throw new IOException("unreadable month " + monthPath(month));
+            }
+            store = new ModisColumnStore();
+            store.buildDayIndex();
+        }
+        return store;
+    }
+
+    /**
+     * Load the stored detections from a month to the last stored month
+     * @param firstMonth month number
+     * @return store sorted by day, without indexes
+     */
+    ModisColumnStore load(int firstMonth) throws IOException {
+        List<ModisColumnStore> parts = new ArrayList<>();
+        for (int month : months()) {
+            if (month >= firstMonth) {
+                parts.add(readMonth(month));
+            }
+        }
+        return ModisColumnStore.merge(parts.toArray(new ModisColumnStore[0]));
+    }
+
+    /**
+     * Add the detections of a feed that are not stored yet.
+     * A detection is already stored if a stored detection has the same day, time, latitude and longitude.
+     * @param feed detections of the feed, sorted by day (e.g. from ModisFileReader.readColumns)
+     * @return the days that received new detections, ascending
+     */
+    int[] append(ModisColumnStore feed) throws IOException {
+        List<Integer> months = new ArrayList<>();
+        List<ModisColumnStore> updated = new ArrayList<>();
+        int[] changed = new int[0];
+        int from = 0;
+        while (from < feed.size) {
+            //the feed is sorted by day, so the pixels of a month are contiguous
+            int month = monthOf(feed.day[from]);
+            int to = feed.dayStart(firstDayOf(month + 1));
+            ModisColumnStore stored = readMonth(month);
+            ModisColumnStore fresh = newDetections(stored, feed, from, to);
+            if (fresh.size > 0) {
+                months.add(month);
+                updated.add(ModisColumnStore.merge(new ModisColumnStore[] {stored, fresh}));
+                changed = union(changed, fresh.days);
+            }
+            from = to;
+        }
+        addPendingDays(changed);
+        for (int k = 0; k < months.size(); k++) {
+            updated.get(k).writeSnapshot(monthPath(months.get(k)), NO_SOURCE);
+        }
+        return changed;
+    }
+
+    /**
+     * @return the detections [from, to) of the feed that are neither stored nor repeated earlier in the feed,
+     * in feed order, sorted by day
+     */
+    private static ModisColumnStore newDetections(ModisColumnStore stored, ModisColumnStore feed, int from, int to) {
+        ModisColumnStore fresh = new ModisColumnStore(to - from);
+        //open addressing set of pixels: i for stored pixel i, stored.size + j for fresh pixel j
+        int capacity = Integer.highestOneBit(Math.max(4, stored.size + to - from) * 2) * 2;
+        int mask = capacity - 1;
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < stored.size; i++) {
+            int s = (int) hash(stored, i) & mask;
+            while (slots[s] >= 0) s = (s + 1) & mask;
+            slots[s] = i;
+        }
+        for (int i = from; i < to; i++) {
+            int s = (int) hash(feed, i) & mask;
+            boolean known = false;
+            while (slots[s] >= 0) {
+                int p = slots[s];
+                if (p < stored.size ? same(stored, p, feed, i) : same(fresh, p - stored.size, feed, i)) {
+                    known = true;
+                    break;
+                }
+                s = (s + 1) & mask;
+            }
+            if (!known) {
+                slots[s] = stored.size + fresh.size;
+                fresh.add(feed.lat[i], feed.lng[i], feed.brightness[i], feed.scan[i], feed.track[i], feed.day[i], feed.time[i],
+                        feed.confidence[i], feed.isDay.get(i), feed.frp[i]);
+            }
+        }
+        fresh.buildDayIndex();
+        return fresh;
+    }
+
+    private static long hash(ModisColumnStore s, int i) {
+        long h = Double.doubleToLongBits(s.lat[i]) * 0x9E3779B97F4A7C15L;
+        h = (h ^ Double.doubleToLongBits(s.lng[i])) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ ((long) s.day[i] << 16 | s.time[i])) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static boolean same(ModisColumnStore a, int i, ModisColumnStore b, int j) {
+        return a.day[i] == b.day[j] && a.time[i] == b.time[j] && a.lat[i] == b.lat[j] && a.lng[i] == b.lng[j];
+    }
+
+    /**
+     * @return the sorted distinct days of two sorted arrays of distinct days
+     */
+    static int[] union(int[] a, int[] b) {
+        int[] res = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            int d = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+            if (i < a.length && a[i] == d) i++;
+            if (j < b.length && b[j] == d) j++;
+            res[n++] = d;
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    /**
+     * @return days changed by appends whose merge is not done yet, ascending
+     */
+    int[] pendingDays() throws IOException {
+        try (SnapshotIO.Reader in = SnapshotIO.open(dir.resolve(PENDING), SnapshotIO.KIND_DAYS, NO_SOURCE)) {
+            return in == null ? new int[0] : in.getInts(in.getInt());
+        }
+    }
+
+    private void addPendingDays(int[] days) throws IOException {
+        if (days.length == 0) return;
+        int[] pending = union(pendingDays(), days);
+        try (SnapshotIO.Writer out = SnapshotIO.create(dir.resolve(PENDING), SnapshotIO.KIND_DAYS, NO_SOURCE)) {
+            out.putInt(pending.length);
+            out.putInts(pending, 0, pending.length);
+            out.commit();
+        }
+    }
+
+    /**
+     * The merge of the pending days is done
+     */
+    void clearPendingDays() throws IOException {
+        Files.deleteIfExists(dir.resolve(PENDING));
+    }
+}
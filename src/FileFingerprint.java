@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Identifies the content of an input file by its size, last modified time and a checksum,
+ * so that data derived from the file (snapshots, checkpoints) can detect that the file has changed.
+ * To keep the check cheap on multi-GB files the checksum covers the first and last 64 KB
+ * and 64 blocks of 4 KB spread evenly over the rest of the file.
+ * A file that only grows by appending (the occurrence file of IncrementalMerge) can also be checked by the
+ * fingerprint of its first bytes, which has no modification time.
+ */
+public class FileFingerprint {
+    static final int BYTES = 24;
+    private static final int EDGE = 64 * 1024;
+    private static final int BLOCK = 4 * 1024;
+    private static final int BLOCKS = 64;
+
+    long size;
+    long lastModified;
+    long checksum;
+
+    FileFingerprint(long size, long lastModified, long checksum) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @param file
+     * @return the fingerprint of the current content of the file
+     * @throws IOException
+     */
+    static FileFingerprint of(Path file) throws IOException {
+        long size = Files.size(file);
+        return new FileFingerprint(size, Files.getLastModifiedTime(file).toMillis(), checksum(file, size));
+    }
+
+    /**
+     * @param file
+     * @param length number of bytes at the start of the file
+     * @return the fingerprint of the first length bytes of the file (lastModified is 0),
+     * or null if the file is shorter than that
+     * @throws IOException
+     */
+    static FileFingerprint ofPrefix(Path file, long length) throws IOException {
+        if (Files.size(file) < length) return null;
+        return new FileFingerprint(length, 0, checksum(file, length));
+    }
+
+    private static long checksum(Path file, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size <= 2L * EDGE + (long) BLOCKS * BLOCK) {
+                update(crc, channel, 0, (int) size);
+            } else {
+                update(crc, channel, 0, EDGE);
+                long step = (size - 2L * EDGE) / BLOCKS;
+                for (int i = 0; i < BLOCKS; i++) {
+                    update(crc, channel, EDGE + i * step, BLOCK);
+                }
+                update(crc, channel, size - EDGE, EDGE);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32C crc, FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) break;
+        }
+        buf.flip();
+        crc.update(buf);
+    }
+
+    void write(SnapshotIO.Writer out) throws IOException {
+        out.putLong(size);
+        out.putLong(lastModified);
+        out.putLong(checksum);
+    }
+
+    static FileFingerprint read(SnapshotIO.Reader in) throws IOException {
+        return new FileFingerprint(in.getLong(), in.getLong(), in.getLong());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileFingerprint)) return false;
+        FileFingerprint other = (FileFingerprint) o;
+        return size == other.size && lastModified == other.lastModified && checksum == other.checksum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(size) * 31 * 31 + Long.hashCode(lastModified) * 31 + Long.hashCode(checksum);
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size + ", lastModified=" + lastModified + ", checksum=" + Long.toHexString(checksum);
+    }
+}
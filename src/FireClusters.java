@@ -0,0 +1,235 @@
+import java.util.Arrays;
+
+/**
+ * Groups the pixels of each day of a ModisColumnStore into fires (clusters).
+ * Two pixels of the same day are in the same cluster if they are connected by a chain of pixels where
+ * each step is within the adjacency threshold (|lat difference| <= threshold and |lng difference| <= threshold).
+ * Unlike the consecutive-row walk of DataFinder.getFirePixelsByOccurrence, the clusters do not depend on the
+ * order of the rows in the input file.
+ * Clustering uses union-find over a spatial hash whose cells are threshold x threshold degrees:
+ * pixels in the same cell are always adjacent, so only pairs of neighbouring cells need pixel comparisons.
+ * Every pixel gets a cluster ID, and every cluster keeps its bounding box and its pixels.
+ */
+public class FireClusters {
+    final ModisColumnStore store;
+    final double adjacentRecThreshold;
+    int clusterCount;
+    int[] clusterOf; //cluster ID of each pixel
+    int[] dayFirstCluster; //clusters of store.days[k] are [dayFirstCluster[k], dayFirstCluster[k+1])
+    int[] clusterDay; //epoch day of each cluster
+    //pixels of cluster c are clusterPixels[clusterStart[c]] .. clusterPixels[clusterStart[c+1]-1], in file order
+    int[] clusterStart;
+    int[] clusterPixels;
+    //bounding box of each cluster
+    double[] minLat;
+    double[] maxLat;
+    double[] minLng;
+    double[] maxLng;
+
+    FireClusters(ModisColumnStore store, double adjacentRecThreshold) {
+        this.store = store;
+        this.adjacentRecThreshold = adjacentRecThreshold;
+        int dayCount = store.dayCount();
+        clusterOf = new int[store.size];
+        dayFirstCluster = new int[dayCount + 1];
+        DayWork work = new DayWork(store.maxDaySize());
+        for (int k = 0; k < dayCount; k++) {
+            dayFirstCluster[k] = clusterCount;
+            clusterCount += work.cluster(k, clusterCount);
+        }
+        dayFirstCluster[dayCount] = clusterCount;
+
+        clusterDay = new int[clusterCount];
+        clusterStart = new int[clusterCount + 1];
+        clusterPixels = new int[store.size];
+        minLat = new double[clusterCount];
+        maxLat = new double[clusterCount];
+        minLng = new double[clusterCount];
+        maxLng = new double[clusterCount];
+        Arrays.fill(minLat, Double.MAX_VALUE);
+        Arrays.fill(maxLat, -Double.MAX_VALUE);
+        Arrays.fill(minLng, Double.MAX_VALUE);
+        Arrays.fill(maxLng, -Double.MAX_VALUE);
+        for (int i = 0; i < store.size; i++) {
+            int c = clusterOf[i];
+            clusterStart[c + 1]++;
+            clusterDay[c] = store.day[i];
+            minLat[c] = Math.min(minLat[c], store.lat[i]);
+            maxLat[c] = Math.max(maxLat[c], store.lat[i]);
+            minLng[c] = Math.min(minLng[c], store.lng[i]);
+            maxLng[c] = Math.max(maxLng[c], store.lng[i]);
+        }
+        for (int c = 0; c < clusterCount; c++) {
+            clusterStart[c + 1] += clusterStart[c];
+        }
+        int[] next = Arrays.copyOf(clusterStart, clusterCount);
+        for (int i = 0; i < store.size; i++) {
+            clusterPixels[next[clusterOf[i]]++] = i;
+        }
+    }
+
+    int size(int cluster) {
+        return clusterStart[cluster + 1] - clusterStart[cluster];
+    }
+
+    /**
+     * Find the cluster of the pixel nearest to (lat, lng) on a day, among the pixels within a square around it
+     * @param epochDay
+     * @param lat
+     * @param lng
+     * @param firstRecThreshold half side of the square in degrees
+     * @param buffer scratch array at least as large as the biggest day
+     * @return cluster ID, or -1 if no pixel of that day is inside the square
+     */
+    int nearestCluster(int epochDay, double lat, double lng, double firstRecThreshold, int[] buffer) {
+        int k = store.dayIndex(epochDay);
+        if (k < 0) return -1;
+        int n = store.spatialIndex.within(k, lat, lng, firstRecThreshold, buffer);
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int j = 0; j < n; j++) {
+            int i = buffer[j];
+            double dLat = store.lat[i] - lat;
+            double dLng = store.lng[i] - lng;
+            double distance = dLat * dLat + dLng * dLng;
+            //ties go to the earlier pixel so the result does not depend on the bucket visiting order
+            if (distance < bestDistance || (distance == bestDistance && i < best)) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best < 0 ? -1 : clusterOf[best];
+    }
+
+    /**
+     * Scratch space for clustering one day: union-find arrays and an open-addressing spatial hash
+     */
+    private class DayWork {
+        int[] parent;
+        int[] rank;
+        int[] next; //next pixel in the same hash cell
+        long[] keys;
+        int[] heads;
+        int mask;
+        int dayFrom; //index of the first pixel of the day being clustered
+
+        DayWork(int maxDaySize) {
+            parent = new int[maxDaySize];
+            rank = new int[maxDaySize];
+            next = new int[maxDaySize];
+            int capacity = Integer.highestOneBit(Math.max(4, maxDaySize) * 2) * 2;
+            keys = new long[capacity];
+            heads = new int[capacity];
+        }
+
+        int find(int x) {
+            while (parent[x] != x) {
+                parent[x] = parent[parent[x]];
+                x = parent[x];
+            }
+            return x;
+        }
+
+        void union(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a == b) return;
+            if (rank[a] < rank[b]) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            parent[b] = a;
+            if (rank[a] == rank[b]) rank[a]++;
+        }
+
+        int slot(long key) {
+            int h = (int) (key ^ (key >>> 29) ^ (key >>> 41)) * 0x9E3779B9;
+            int s = (h ^ (h >>> 16)) & mask;
+            while (heads[s] >= 0 && keys[s] != key) {
+                s = (s + 1) & mask;
+            }
+            return s;
+        }
+
+        /**
+         * Cluster the pixels of store.days[k]
+         * @param firstId ID of the first cluster of the day
+         * @return number of clusters of the day
+         */
+        int cluster(int k, int firstId) {
+            int from = store.dayOffsets[k];
+            int n = store.dayOffsets[k + 1] - from;
+            if (n == 0) return 0;
+            dayFrom = from;
+            double cellSize = Math.max(adjacentRecThreshold, 1e-9);
+            int capacity = Integer.highestOneBit(Math.max(4, n) * 2) * 2;
+            mask = capacity - 1;
+            Arrays.fill(heads, 0, capacity, -1);
+            double lat0 = Double.MAX_VALUE, lng0 = Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                lat0 = Math.min(lat0, store.lat[from + i]);
+                lng0 = Math.min(lng0, store.lng[from + i]);
+                parent[i] = i;
+                rank[i] = 0;
+            }
+            //put each pixel into its cell; pixels of the same cell are all adjacent to each other
+            for (int i = 0; i < n; i++) {
+                long key = key((long) Math.floor((store.lat[from + i] - lat0) / cellSize), (long) Math.floor((store.lng[from + i] - lng0) / cellSize));
+                int s = slot(key);
+                if (heads[s] >= 0) {
+                    union(heads[s], i);
+                } else {
+                    keys[s] = key;
+                }
+                next[i] = heads[s];
+                heads[s] = i;
+            }
+            //connect neighbouring cells (each pair of cells is visited once)
+            for (int s = 0; s < capacity; s++) {
+                if (heads[s] < 0) continue;
+                long r = keys[s] >> 32;
+                long c = (int) keys[s];
+                connect(heads[s], slot(key(r, c + 1)));
+                connect(heads[s], slot(key(r + 1, c - 1)));
+                connect(heads[s], slot(key(r + 1, c)));
+                connect(heads[s], slot(key(r + 1, c + 1)));
+            }
+            //number the clusters by their first pixel
+            int count = 0;
+            int[] idOfRoot = rank; //ranks are no longer needed
+            Arrays.fill(idOfRoot, 0, n, -1);
+            for (int i = 0; i < n; i++) {
+                int root = find(i);
+                if (idOfRoot[root] < 0) idOfRoot[root] = firstId + count++;
+                clusterOf[from + i] = idOfRoot[root];
+            }
+            return count;
+        }
+
+        private boolean adjacent(int a, int b) {
+            return Math.abs(store.lat[dayFrom + a] - store.lat[dayFrom + b]) <= adjacentRecThreshold
+                    && Math.abs(store.lng[dayFrom + a] - store.lng[dayFrom + b]) <= adjacentRecThreshold;
+        }
+
+        private long key(long r, long c) {
+            return (r << 32) | (c & 0xffffffffL);
+        }
+
+        /**
+         * union the two cells if any pixel of one is adjacent to any pixel of the other
+         */
+        private void connect(int headA, int slotB) {
+            int headB = heads[slotB];
+            if (headB < 0 || find(headA) == find(headB)) return;
+            for (int a = headA; a >= 0; a = next[a]) {
+                for (int b = headB; b >= 0; b = next[b]) {
+                    if (adjacent(a, b)) {
+                        union(a, b);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,4 +1,4 @@
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.List;
 
 
@@ -11,7 +11,7 @@ import java.util.List;
  * which ensures that this cell can only be counted once when calculating the fire size.
  * For more details, please refer to the visualized documentation of this method.
  */
-public class FireGrid {
+public class FireGrid implements AreaCalculator {
     final static int RADIUS = 6371; //earth's radius in KM
 //    final static double RADIUS = 16989.33; //earth's radius in 375M unit
     //1 km grid unit: 4 corners in degree
@@ -21,6 +21,15 @@ public class FireGrid {
     double mapMaxLng;
     Double[] centerPoint;
     Grid grid;
+    CellGrid cellGrid; //flat-array grid, used instead of grid when set
+    /**
+     * a sparse grid is used when the dense grid would have more than this many cells per pixel
+     */
+    final static int SPARSE_CELLS_PER_PIXEL = SparseGrid.TILE_AREA;
+    /**
+     * or more than this many cells in total (about 70 MB of cell state)
+     */
+    final static int MAX_DENSE_CELLS = 1 << 21;
     FireGrid() {}
 
     /**
@@ -41,6 +50,75 @@ public class FireGrid {
         grid = new Grid(0, rowEnd, 0, colEnd);
     }
 
+    /**
+     * Initialization of FireGrid with a flat-array FlatGrid or SparseGrid of the same size as the Grid
+     * @param lat0 the smallest latitude of the pixels appeared in the current fire
+     * @param lng0 the smallest longitude of the pixels appeared in the current fire
+     * @param latMax the largest latitude of the pixels appeared in the current fire
+     * @param lngMax the largest longitude of the pixels appeared in the current fire
+     * @param sparse true: only store the cells touched by pixels (see SparseGrid), false: FlatGrid
+     */
+    FireGrid(double lat0, double lng0, double latMax, double lngMax, boolean sparse) {
+        map0Lat = lat0;
+        map0Lng = lng0;
+        mapMaxLat = latMax;
+        mapMaxLng = lngMax;
+        int rowEnd = (int) Math.ceil(convertLngToY(mapMaxLng)); //convert lng into coordinate Y
+        int colEnd = (int) Math.ceil(convertLatToX(mapMaxLat)); //convert lat into coordinate X
+        if (sparse) {
+            cellGrid = new SparseGrid(map0Lat, map0Lng, rowEnd + 1, colEnd + 1);
+        } else {
+            cellGrid = new FlatGrid(map0Lat, map0Lng, rowEnd + 1, colEnd + 1);
+        }
+    }
+
+    /**
+     * The flat-array grid of the current thread for a fire with the given corners: same size as the Grid of
+     * FireGrid(lat0, lng0, latMax, lngMax), sparse or not as decided by isSparse.
+     * The grid is reused by the next call on the same thread.
+     */
+    static CellGrid gridForThread(double lat0, double lng0, double latMax, double lngMax, int pixelCount) {
+        int rowEnd = (int) Math.ceil((lngMax - lng0) * 2 * Math.PI * RADIUS / 360); //as convertLngToY(lngMax)
+        int colEnd = (int) Math.ceil((latMax - lat0) * 2 * Math.PI * RADIUS / 360); //as convertLatToX(latMax)
+        if (isSparse(lat0, lng0, latMax, lngMax, pixelCount)) {
+            return SparseGrid.forThread(lat0, lng0, rowEnd + 1, colEnd + 1);
+        }
+        return FlatGrid.forThread(lat0, lng0, rowEnd + 1, colEnd + 1);
+    }
+
+    /**
+     * @return true if a dense grid over the bounding box would have more than SPARSE_CELLS_PER_PIXEL cells per pixel
+     * or more than MAX_DENSE_CELLS cells
+     */
+    static boolean isSparse(double lat0, double lng0, double latMax, double lngMax, int pixelCount) {
+        double kmPerDegree = 2 * Math.PI * RADIUS / 360;
+        double cells = (Math.ceil((lngMax - lng0) * kmPerDegree) + 1) * (Math.ceil((latMax - lat0) * kmPerDegree) + 1);
+        return cells > MAX_DENSE_CELLS || cells > (double) SPARSE_CELLS_PER_PIXEL * pixelCount;
+    }
+
+    /**
+     * adding a pixel to the grid in use
+     */
+    void addPixel(double lat, double lng, double scan, double track) {
+        if (cellGrid != null) {
+            cellGrid.addPixel(lat, lng, scan, track);
+        } else {
+            grid.addPixel(lat, lng, scan, track);
+        }
+    }
+
+    /**
+     * @return the covered size in KM^2 of the grid in use
+     */
+    double countTotalCovered() {
+        return cellGrid != null ? cellGrid.countTotalCovered() : grid.countTotalCovered();
+    }
+
+    @Override
+    public Double[] getCenterPoint() {
+        return centerPoint;
+    }
+
     /**
      * Conversion of a latitude to a coordinate X (in KM) using the difference of current lat and boarder lat (map0Lat)
      * @param lat: current pixel's latitude
@@ -328,8 +406,10 @@ public class FireGrid {
      * @param modisInfoList
      * @return the size of the fire formed by the input pixels
      */
+    @Override
     public double calcSize( List<ModisInfo> modisInfoList) {
         if (modisInfoList == null || modisInfoList.size() == 0) return 0.0;
+        long t = PipelineStats.start();
         double minLatitude = Double.MAX_VALUE;
         double maxLatitude = -(Double.MAX_VALUE-1);
         double minLongitude = Double.MAX_VALUE;
@@ -345,44 +425,103 @@ public class FireGrid {
             if (lon > maxLongitude) maxLongitude = lon;
         }
         //initialize the fire grid
-        FireGrid fg = new FireGrid(minLatitude, minLongitude, maxLatitude, maxLongitude);
+        CellGrid grid = gridForThread(minLatitude, minLongitude, maxLatitude, maxLongitude, modisInfoList.size());
         centerPoint = new Double[] {(minLatitude + maxLatitude)/2, (minLongitude + maxLongitude)/2};
         //add each pixel into the grid
         for (int i = 0; i < modisInfoList.size(); i++) {
-            fg.grid.addPixel(modisInfoList.get(i).lat, modisInfoList.get(i).lng, modisInfoList.get(i).scan, modisInfoList.get(i).track);
+            grid.addPixel(modisInfoList.get(i).lat, modisInfoList.get(i).lng, modisInfoList.get(i).scan, modisInfoList.get(i).track);
         }
 //        System.out.println("fire count1: " + fg.grid.coveredCnt);
 //        System.out.println("fire total count: " + fg.grid.countTotalCovered());
 
         //calculate total covered size
-        return fg.grid.countTotalCovered();
+        double size = grid.countTotalCovered();
+        if (PipelineStats.ENABLED) PipelineStats.GRID.sized(modisInfoList.size(), grid.cellsInUse(), t);
+        return size;
+    }
+
+    /**
+     * call this function to calculate the size of a fire given a pixel index range of a ModisColumnStore
+     * @param store
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @return the size of the fire formed by the pixels in [from, to)
+     */
+    @Override
+    public double calcSize(ModisColumnStore store, int from, int to) {
+        if (store == null || from >= to) return 0.0;
+        return calcSize(store.lat, store.lng, store.scan, store.track, null, from, to);
+    }
+
+    /**
+     * call this function to calculate the size of a fire given a list of pixel indices of a ModisColumnStore,
+     * e.g. the pixels of a FireClusters cluster
+     * @param store
+     * @param pixels pixel indices
+     * @param from position of the first pixel index in pixels
+     * @param to position after the last pixel index in pixels
+     * @return the size of the fire formed by the pixels
+     */
+    @Override
+    public double calcSize(ModisColumnStore store, int[] pixels, int from, int to) {
+        if (store == null || from >= to) return 0.0;
+        return calcSize(store.lat, store.lng, store.scan, store.track, pixels, from, to);
+    }
+
+    /**
+     * Size of the pixels pixels[from] .. pixels[to - 1] of the column arrays, or of the pixels [from, to) if pixels is null
+     */
+    private double calcSize(double[] lat, double[] lng, double[] scan, double[] track, int[] pixels, int from, int to) {
+        long t = PipelineStats.start();
+        double minLatitude = Double.MAX_VALUE;
+        double maxLatitude = -(Double.MAX_VALUE-1);
+        double minLongitude = Double.MAX_VALUE;
+        double maxLongitude = -(Double.MAX_VALUE-1);
+
+        //finding the 4 corners of the rectangle
+        for (int p = from; p < to; p++) {
+            int i = pixels == null ? p : pixels[p];
+            if (lat[i] < minLatitude) minLatitude = lat[i];
+            if (lat[i] > maxLatitude) maxLatitude = lat[i];
+            if (lng[i] < minLongitude) minLongitude = lng[i];
+            if (lng[i] > maxLongitude) maxLongitude = lng[i];
+        }
+        //initialize the fire grid
+        CellGrid grid = gridForThread(minLatitude, minLongitude, maxLatitude, maxLongitude, to - from);
+        centerPoint = new Double[] {(minLatitude + maxLatitude)/2, (minLongitude + maxLongitude)/2};
+        //add each pixel into the grid
+        for (int p = from; p < to; p++) {
+            int i = pixels == null ? p : pixels[p];
+            grid.addPixel(lat[i], lng[i], scan[i], track[i]);
+        }
+        //calculate total covered size
+        double size = grid.countTotalCovered();
+        if (PipelineStats.ENABLED) PipelineStats.GRID.sized(to - from, grid.cellsInUse(), t);
+        return size;
     }
 
     //testing
     public static void main(String[] args) {
+        ModisColumnStore store;
         try {
 //            FileReader.read("MODIS_sample.csv");      MODIS_C6_Southern_Africa_7d.csv
 //            FileReader.read("MODIS_C6_USA_contiguous_and_Hawaii_7d.csv");
-            ModisFileReader.read("data/MODIS_C6_Southern_Africa_7d.csv");
-        } catch (FileNotFoundException e) {
+            store = ModisFileReader.readColumns("data/MODIS_C6_Southern_Africa_7d.csv");
+        } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
+            return;
         }
-        System.out.println("min lat: "+ ModisFileReader.minLatitude + "; max lat: "+ ModisFileReader.maxLatitude);
-        System.out.println("min lng: "+ ModisFileReader.minLongitude + "; max lng: "+ ModisFileReader.maxLongitude);
-        FireGrid fg = new FireGrid(ModisFileReader.minLatitude, ModisFileReader.minLongitude, ModisFileReader.maxLatitude, ModisFileReader.maxLongitude);
-
-        List<List<String>> rawData = ModisFileReader.rawData;
-        for (int i = 1; i < rawData.get(0).size(); i++) {
-            List<String> record = rawData.get(i);
-            double lat = Double.parseDouble(record.get(0));
-            double lng = Double.parseDouble(record.get(1));
-            double scan = Double.parseDouble(record.get(3));
-            double track = Double.parseDouble(record.get(4));
-            fg.grid.addPixel(lat, lng, scan, track);
+        System.out.println("min lat: "+ store.minLatitude + "; max lat: "+ store.maxLatitude);
+        System.out.println("min lng: "+ store.minLongitude + "; max lng: "+ store.maxLongitude);
+        //the whole region is mostly empty: only store the cells touched by pixels
+        FireGrid fg = new FireGrid(store.minLatitude, store.minLongitude, store.maxLatitude, store.maxLongitude, true);
+
+        for (int i = 0; i < store.size; i++) {
+            fg.addPixel(store.lat[i], store.lng[i], store.scan[i], store.track[i]);
         }
-        System.out.println("fire count1: " + fg.grid.coveredCnt);
-        System.out.println("fire total count: " + fg.grid.countTotalCovered());
+        System.out.println("fire count1: " + fg.cellGrid.displayCount());
+        System.out.println("fire total count: " + fg.countTotalCovered());
     }
 
 
@@ -0,0 +1,145 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of fire sizes in front of AreaCalculator.calcSize (FireGrid by default).
+ * Many occurrence rows (one per weather station and day) point at the same fire, so the same daily pixel set
+ * is sized again and again. A daily pixel set of the column store is identified by its index range
+ * (ranges never span days) or by its FireTracks segment, and its size and center point are computed once.
+ * One cache is shared by all the Combiner threads of a parallel merge, so it is split into lock-striped LRU shards
+ * chosen by a hash of the key: threads only wait for each other when they hit the same shard at the same time.
+ * A cache of capacity 0 keeps nothing, so every size is computed (e.g. to benchmark the merge without the cache).
+ */
+public class FireSizeCache {
+    static final int DEFAULT_CAPACITY = 100000;
+
+    private final ModisColumnStore store;
+    private final AreaCalculator.Engine engine;
+    private final double resolution;
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    FireSizeCache(ModisColumnStore store, int capacity) {
+        this(store, capacity, AreaCalculator.Engine.GRID);
+    }
+
+    FireSizeCache(ModisColumnStore store, int capacity, AreaCalculator.Engine engine) {
+        this.store = store;
+        this.engine = engine;
+        this.resolution = engine == AreaCalculator.Engine.QUADTREE ? QuadtreeArea.resolutionOf(store) : QuadtreeArea.MODIS_RESOLUTION;
+        //a few shards per core keep contention low; each shard holds its share of the capacity
+        int count = capacity <= 0 ? 0 : Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) * 2;
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(Math.max(1, (capacity + count - 1) / count));
+        }
+    }
+
+    /**
+     * @param from index of the first pixel
+     * @param to index after the last pixel
+     * @return {size, center lat, center lng} of the pixels [from, to) of the store
+     */
+    double[] sizeOfRange(int from, int to) {
+        long key = ((long) from << 32) | to;
+        double[] res = lookup(key);
+        if (res == null) {
+            AreaCalculator fg = engine.create(resolution);
+            double size = fg.calcSize(store, from, to);
+            res = store(key, size, fg.getCenterPoint());
+        }
+        return res;
+    }
+
+    /**
+     * @param segment index of a (track, day) segment of store.tracks()
+     * @return {size, center lat, center lng} of the pixels of the segment
+     */
+    double[] sizeOfSegment(int segment) {
+        //negative keys never clash with the (from, to) keys of sizeOfRange
+        long key = -1L - segment;
+        double[] res = lookup(key);
+        if (res == null) {
+            FireTracks tracks = store.tracks();
+            AreaCalculator fg = engine.create(resolution);
+            double size = fg.calcSize(store, tracks.trackPixels, tracks.segmentStart[segment], tracks.segmentStart[segment + 1]);
+            res = store(key, size, fg.getCenterPoint());
+        }
+        return res;
+    }
+
+    private Shard shardOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return shards[(int) (h >>> 32) & (shards.length - 1)];
+    }
+
+    private double[] lookup(long key) {
+        double[] res = shards.length == 0 ? null : shardOf(key).get(key);
+        if (res != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return res;
+    }
+
+    private double[] store(long key, double size, Double[] centerPoint) {
+        double[] res = {size, centerPoint[0], centerPoint[1]};
+        if (shards.length > 0) shardOf(key).put(key, res);
+        return res;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    int size() {
+        int res = 0;
+        for (Shard shard : shards) {
+            res += shard.size();
+        }
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        long h = hits(), total = h + misses();
+        return "fire size cache: " + h + " hits, " + (total - h) + " misses (" + (total == 0 ? 0 : 100 * h / total) + "% hit rate), "
+                + size() + " entries";
+    }
+
+    /**
+     * One LRU shard of the cache; its methods are synchronized
+     */
+    private static class Shard {
+        //access order: iteration starts at the least recently used entry
+        private final LinkedHashMap<Long, double[]> entries;
+
+        Shard(int capacity) {
+            entries = new LinkedHashMap<Long, double[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, double[]> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized double[] get(long key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(long key, double[] value) {
+            entries.put(key, value);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
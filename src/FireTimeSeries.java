@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * Daily sizes and center points of one fire, indexed by days since its start date, on primitive arrays.
+ * Day 0 is the start date and day length - 1 the end date; days without a size hold -1.
+ * compute() finds everything Calculator.getCalcInfo reports in one pass over the days, without creating objects.
+ * The values (and the order of the floating point operations) are those of the earlier Date-by-Date walk over
+ * TreeMaps that this replaces, quirks included (see compute and movementDirection).
+ * A series is reset in place so one instance can be reused for many fires.
+ */
+public class FireTimeSeries {
+    int startDay; //epoch day of the start date
+    int length;
+    double[] size = new double[16];
+    double[] centerLat = new double[16];
+    double[] centerLng = new double[16];
+
+    //results of compute()
+    int peak; //day of the max size, -1 if no day has a size
+    double maxSize;
+    double aveSize;
+    double aveIncreaseRate;
+    double aveDecreaseRate;
+    String movementDirection;
+
+    /**
+     * Start a new fire
+     * @param startDay epoch day of the start date
+     * @param endDay epoch day of the end date
+     */
+    void reset(int startDay, int endDay) {
+        this.startDay = startDay;
+        length = endDay - startDay + 1;
+        if (size.length < length) {
+            int capacity = Math.max(length, size.length * 2);
+            size = new double[capacity];
+            centerLat = new double[capacity];
+            centerLng = new double[capacity];
+        }
+        Arrays.fill(size, 0, length, -1.0);
+        Arrays.fill(centerLat, 0, length, Double.NaN);
+        Arrays.fill(centerLng, 0, length, Double.NaN);
+    }
+
+    /**
+     * @param day epoch day, between the start and end day
+     * @param daySize fire size of the day
+     * @param lat center latitude of the day
+     * @param lng center longitude of the day
+     */
+    void put(int day, double daySize, double lat, double lng) {
+        int d = day - startDay;
+        size[d] = daySize;
+        centerLat[d] = lat;
+        centerLng[d] = lng;
+    }
+
+    /**
+     * Peak, average size, average increase rate (start date to peak date), average decrease rate (peak date to end date)
+     * and movement direction (start date to end date) of the fire.
+     * The increase rate covers the day pairs before the one ending on the peak date,
+     * the decrease rate the pairs from the peak date up to the day before the end date, and the size of the end date
+     * itself is never used.
+     */
+    void compute() {
+        int days = length - 1; //the end date is not part of the size walk
+        maxSize = -1;
+        peak = -1;
+        double sum = 0;
+        double rateSum = 0; //rates of the pairs before the current day
+        double incSum = 0, decSum = 0;
+        int incCnt = 0, decCnt = 0;
+        for (int d = 0; d < days; d++) {
+            double curSize = size[d];
+            sum += curSize;
+            double rate = 0;
+            if (d > 0) {
+                rate = (curSize - size[d - 1]) / size[d - 1]; //as Calculator.calcRate
+            }
+            if (curSize > maxSize) {
+                maxSize = curSize;
+                peak = d;
+                incSum = rateSum;
+                incCnt = Math.max(d - 1, 0);
+                decSum = 0;
+                decCnt = 0;
+            } else if (d > 0 && peak >= 0) {
+                decSum += rate;
+                decCnt++;
+            }
+            if (d > 0) {
+                rateSum += rate;
+            }
+        }
+        aveSize = sum / days;
+        aveIncreaseRate = incSum / incCnt;
+        aveDecreaseRate = decSum / decCnt;
+        movementDirection = movementDirection();
+    }
+
+    /**
+     * The original direction check compared boxed center coordinates by reference,
+     * so the fire counts as not moving only when the start and end day are the same day.
+     */
+    private String movementDirection() {
+        double lat0 = centerLat[0];
+        double lng0 = centerLng[0];
+        double lat1 = centerLat[length - 1];
+        double lng1 = centerLng[length - 1];
+        if (length == 1) {
+            return "";
+        } else if (lat0 <= lat1 && lng0 >= lng1) {
+            return "NW";
+        } else if (lat0 <= lat1 && lng0 < lng1) {
+            return "NE";
+        } else if (lat0 > lat1 && lng0 >= lng1) {
+            return "SW";
+        } else {
+            return "SE";
+        }
+    }
+}
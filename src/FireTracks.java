@@ -0,0 +1,214 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Links the FireClusters of consecutive days into fire tracks, once for the whole dataset.
+ * A cluster on day d+1 is linked to a cluster on day d when one of its pixels is within the adjacency threshold
+ * of one of the other cluster's pixels. Linked clusters (union-find) share a persistent track ID.
+ * Candidate pairs come from a latitude sweep over the cluster bounding boxes, and each pair is tested once,
+ * so the pixels of a cluster are only compared with the clusters of the previous day around it.
+ * A track only links consecutive days, so like the day-by-day walk of DataFinder.getStartToEndFirePixelsByOccurrence
+ * it ends on the first day without a matching fire.
+ * For every track the start day, end day and the pixels of each day are precomputed,
+ * so finding the duration and daily pixels of a fire is a single lookup.
+ */
+public class FireTracks {
+    final FireClusters clusters;
+    int trackCount;
+    int[] trackOf; //track ID of each cluster
+    int[] trackFirstDay;
+    int[] trackLastDay;
+    //segments (one per track and day) of track t are [trackSegment[t], trackSegment[t+1])
+    int[] trackSegment;
+    int[] segmentDay;
+    //pixels of segment s are trackPixels[segmentStart[s]] .. trackPixels[segmentStart[s+1]-1], in file order
+    int[] segmentStart;
+    int[] trackPixels;
+
+    FireTracks(FireClusters clusters) {
+        this.clusters = clusters;
+        ModisColumnStore store = clusters.store;
+        double threshold = clusters.adjacentRecThreshold;
+        int clusterCount = clusters.clusterCount;
+        int[] parent = new int[clusterCount];
+        for (int c = 0; c < clusterCount; c++) {
+            parent[c] = c;
+        }
+        //link the clusters of day d+1 to the clusters of day d that have a pixel close to one of theirs
+        int[] buffer = new int[store.maxDaySize()];
+        for (int k = 0; k + 1 < store.dayCount(); k++) {
+            if (store.days[k + 1] == store.days[k] + 1) {
+                linkDays(parent, k, buffer);
+            }
+        }
+        //number the tracks by their first cluster, which is also their first day
+        trackOf = new int[clusterCount];
+        int[] idOfRoot = new int[clusterCount];
+        Arrays.fill(idOfRoot, -1);
+        for (int c = 0; c < clusterCount; c++) {
+            int root = find(parent, c);
+            if (idOfRoot[root] < 0) idOfRoot[root] = trackCount++;
+            trackOf[c] = idOfRoot[root];
+        }
+        //clusters grouped by track; cluster IDs increase with the day, so each group is in day order
+        int[] groupStart = new int[trackCount + 1];
+        for (int c = 0; c < clusterCount; c++) {
+            groupStart[trackOf[c] + 1]++;
+        }
+        for (int t = 0; t < trackCount; t++) {
+            groupStart[t + 1] += groupStart[t];
+        }
+        int[] grouped = new int[clusterCount];
+        int[] next = Arrays.copyOf(groupStart, trackCount);
+        for (int c = 0; c < clusterCount; c++) {
+            grouped[next[trackOf[c]]++] = c;
+        }
+        //one segment per track and day
+        trackFirstDay = new int[trackCount];
+        trackLastDay = new int[trackCount];
+        trackSegment = new int[trackCount + 1];
+        int segmentCount = 0;
+        for (int t = 0; t < trackCount; t++) {
+            trackFirstDay[t] = clusters.clusterDay[grouped[groupStart[t]]];
+            trackLastDay[t] = clusters.clusterDay[grouped[groupStart[t + 1] - 1]];
+            segmentCount += trackLastDay[t] - trackFirstDay[t] + 1;
+        }
+        segmentDay = new int[segmentCount];
+        segmentStart = new int[segmentCount + 1];
+        trackPixels = new int[store.size];
+        int s = 0;
+        int p = 0;
+        for (int t = 0; t < trackCount; t++) {
+            trackSegment[t] = s;
+            int g = groupStart[t];
+            for (int day = trackFirstDay[t]; day <= trackLastDay[t]; day++) {
+                segmentDay[s] = day;
+                segmentStart[s] = p;
+                while (g < groupStart[t + 1] && clusters.clusterDay[grouped[g]] == day) {
+                    int c = grouped[g++];
+                    int len = clusters.size(c);
+                    System.arraycopy(clusters.clusterPixels, clusters.clusterStart[c], trackPixels, p, len);
+                    p += len;
+                }
+                Arrays.sort(trackPixels, segmentStart[s], p);
+                s++;
+            }
+        }
+        trackSegment[trackCount] = s;
+        segmentStart[s] = p;
+    }
+
+    /**
+     * Union the clusters of store.days[k + 1] with the clusters of store.days[k] they touch.
+     * Both days' clusters are swept by latitude, those of day k + 1 widened by the threshold, so only the pairs whose
+     * latitude ranges overlap are compared; each of them is tested once
+     */
+    private void linkDays(int[] parent, int k, int[] buffer) {
+        double threshold = clusters.adjacentRecThreshold;
+        //latitudes are at most 180 degrees, so 1e-9 is far above their rounding errors: the sweep never misses a pair
+        double margin = threshold + 1e-9;
+        int[] olds = byMinLat(clusters.dayFirstCluster[k], clusters.dayFirstCluster[k + 1]);
+        int[] news = byMinLat(clusters.dayFirstCluster[k + 1], clusters.dayFirstCluster[k + 2]);
+        int[] activeOld = new int[olds.length];
+        int[] activeNew = new int[news.length];
+        int oldCount = 0, newCount = 0;
+        int i = 0, j = 0;
+        while (i < olds.length || j < news.length) {
+            if (j == news.length || (i < olds.length && clusters.minLat[olds[i]] <= clusters.minLat[news[j]] - margin)) {
+                //a cluster of day k starts: compare it with the open clusters of day k + 1
+                int a = olds[i++];
+                double start = clusters.minLat[a];
+                int kept = 0;
+                for (int n = 0; n < newCount; n++) {
+                    int b = activeNew[n];
+                    if (clusters.maxLat[b] + margin < start) continue;
+                    activeNew[kept++] = b;
+                    if (boxesTouch(a, b, threshold)) link(parent, a, b, buffer);
+                }
+                newCount = kept;
+                activeOld[oldCount++] = a;
+            } else {
+                //a cluster of day k + 1 starts: compare it with the open clusters of day k
+                int b = news[j++];
+                double start = clusters.minLat[b] - margin;
+                int kept = 0;
+                for (int n = 0; n < oldCount; n++) {
+                    int a = activeOld[n];
+                    if (clusters.maxLat[a] < start) continue;
+                    activeOld[kept++] = a;
+                    if (boxesTouch(a, b, threshold)) link(parent, a, b, buffer);
+                }
+                oldCount = kept;
+                activeNew[newCount++] = b;
+            }
+        }
+    }
+
+    /**
+     * @return the clusters [from, to) sorted by their minimum latitude
+     */
+    private int[] byMinLat(int from, int to) {
+        return IntStream.range(from, to).boxed()
+                .sorted(Comparator.comparingDouble(c -> clusters.minLat[c]))
+                .mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return false if no pixel of cluster a can be within the threshold of a pixel of cluster b.
+     * Rounded subtraction is monotonic, so a pair of pixels within the threshold always passes this test
+     */
+    private boolean boxesTouch(int a, int b, double threshold) {
+        return clusters.minLat[a] - clusters.maxLat[b] <= threshold && clusters.minLat[b] - clusters.maxLat[a] <= threshold
+                && clusters.minLng[a] - clusters.maxLng[b] <= threshold && clusters.minLng[b] - clusters.maxLng[a] <= threshold;
+    }
+
+    /**
+     * Union cluster a (day d) and cluster b (day d+1) if a pixel of b is within the threshold of a pixel of a
+     */
+    private void link(int[] parent, int a, int b, int[] buffer) {
+        if (find(parent, a) == find(parent, b)) return;
+        ModisColumnStore store = clusters.store;
+        double threshold = clusters.adjacentRecThreshold;
+        int dayIndex = store.dayIndex(clusters.clusterDay[a]);
+        for (int p = clusters.clusterStart[b]; p < clusters.clusterStart[b + 1]; p++) {
+            int i = clusters.clusterPixels[p];
+            double lat = store.lat[i];
+            double lng = store.lng[i];
+            //skip the pixels of b that are too far from the bounding box of a
+            if (clusters.minLat[a] - lat > threshold || lat - clusters.maxLat[a] > threshold
+                    || clusters.minLng[a] - lng > threshold || lng - clusters.maxLng[a] > threshold) continue;
+            int n = store.spatialIndex.within(dayIndex, lat, lng, threshold, buffer);
+            for (int j = 0; j < n; j++) {
+                if (clusters.clusterOf[buffer[j]] == a) {
+                    union(parent, a, b);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a == b) return;
+        //keep the smaller ID as the root
+        if (a < b) {
+            parent[b] = a;
+        } else {
+            parent[a] = b;
+        }
+    }
+
+    int duration(int track) {
+        return trackLastDay[track] - trackFirstDay[track];
+    }
+}
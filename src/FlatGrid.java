@@ -0,0 +1,68 @@
+/**
+ * Dense version of FireGrid.Grid on flat primitive arrays: cell (row, col) is at row * clength + col.
+ * Resetting only clears the cells used by the previous fire and keeps the arrays, so a FlatGrid grows to the
+ * largest fire it has seen and then sizes every further fire without allocating.
+ * FireGrid.calcSize keeps one FlatGrid per thread (see forThread).
+ */
+public class FlatGrid extends CellGrid {
+    private static final ThreadLocal<FlatGrid> POOL = ThreadLocal.withInitial(FlatGrid::new);
+
+    private int usedCells; //cells used by the current fire, rounded up to whole words of the bit sets
+
+    FlatGrid() {}
+
+    /**
+     * @param map0Lat the smallest latitude of the pixels
+     * @param map0Lng the smallest longitude of the pixels
+     * @param rlength number of rows, as in FireGrid.Grid
+     * @param clength number of columns, as in FireGrid.Grid
+     */
+    FlatGrid(double map0Lat, double map0Lng, int rlength, int clength) {
+        reset(map0Lat, map0Lng, rlength, clength);
+    }
+
+    /**
+     * @return the FlatGrid of the current thread, reset for a new fire; valid until the next call on the same thread
+     */
+    static FlatGrid forThread(double map0Lat, double map0Lng, int rlength, int clength) {
+        FlatGrid grid = POOL.get();
+        grid.reset(map0Lat, map0Lng, rlength, clength);
+        return grid;
+    }
+
+    @Override
+    void reset(double map0Lat, double map0Lng, int rlength, int clength) {
+        super.reset(map0Lat, map0Lng, rlength, clength);
+        clearCells(0, usedCells);
+        usedCells = roundCells((long) rlength * clength);
+        ensureCells(usedCells);
+    }
+
+    @Override
+    int cell(int row, int col) {
+        return row * clength + col;
+    }
+
+    @Override
+    int cellsInUse() {
+        return rlength * clength;
+    }
+
+    @Override
+    int find(int row, int col) {
+        return row < 0 || row >= rlength || col < 0 || col >= clength ? -1 : row * clength + col;
+    }
+
+    /**
+     * Calculation of the covered part's size in KM^2
+     * @return the covered part's size in KM^2
+     */
+    @Override
+    public double countTotalCovered() {
+        int cells = rlength * clength;
+        for (int k = 0; k < cells; k++) {
+            countTotal += covered(k);
+        }
+        return countTotal; // 1km^2 unit
+    }
+}
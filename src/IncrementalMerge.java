@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Daily refresh of a merged output from near-real-time detection feeds (MODIS or VIIRS files such as
+ * MODIS_C6_USA_contiguous_and_Hawaii_7d.csv or J1_VIIRS_C2_Canada_24h.csv) without merging all the history again.
+ * The feeds are appended to a DetectionStore, which keeps the days that received new detections.
+ * The fire of an occurrence (mergeOneOccurrenceFromColumns) only depends on the days its lookup probed: from the day
+ * before the start date to the day after the end date, or the report day alone when no fire was found.
+ * Those days are kept per occurrence in a state file next to the output, so a refresh only merges again the
+ * occurrences whose probed days include a changed day, and the new rows of the occurrence file (it may only grow by
+ * appending rows). They are merged on the months of the store they need, loaded from the earliest probed day
+ * (the window grows while a fire reaches its first day), and the rows of the other occurrences are copied from the
+ * previous output as they are. The output has the same rows as mergeAndWriteToCSV on all the detections.
+ * The state also records the fingerprint of the bytes of the occurrence file its rows came from: without a state
+ * matching the output and that start of the occurrence file, or with another area engine, every occurrence is merged.
+ */
+public class IncrementalMerge {
+    static final String STATE_SUFFIX = ".state";
+
+    final DetectionStore detections;
+    final AreaCalculator.Engine areaEngine;
+
+    //state of the output: per occurrence, the days probed by its lookup and the bytes of its row (empty if none)
+    int count;
+    long occurrenceBytes; //size of the occurrence file the count occurrences were read from
+    int[] probeFirst = new int[0];
+    int[] probeLast = new int[0];
+    long[] rowStart = new long[] {0};
+
+    IncrementalMerge(DetectionStore detections, AreaCalculator.Engine areaEngine) {
+        this.detections = detections;
+        this.areaEngine = areaEngine;
+    }
+
+    /**
+     * Append the feeds to the detection store and bring the merged output up to date
+     * @param feedFileNames NRT detection files
+     * @param occurrenceFileName
+     * @param outputFileName merged CSV, rewritten in place
+     * @throws IOException
+     */
+    void refresh(List<String> feedFileNames, String occurrenceFileName, String outputFileName) throws IOException {
+        for (String feedFileName : feedFileNames) {
+            int[] days = detections.append(ModisFileReader.readColumns(feedFileName));
+            System.out.println(feedFileName + ": new detections on " + days.length + " days");
+        }
+        int[] changed = detections.pendingDays();
+        Path output = Paths.get(outputFileName);
+        Path statePath = Paths.get(outputFileName + STATE_SUFFIX);
+        Path occurrencePath = Paths.get(occurrenceFileName);
+        long occurrenceSize = Files.size(occurrencePath);
+        OccurrenceFileReader.occurInfoList.clear();
+        OccurrenceFileReader.readCached(occurrenceFileName);
+        List<OccurInfo> occurrences = OccurrenceFileReader.occurInfoList;
+        boolean previous = readState(statePath, output, occurrencePath) && count <= occurrences.size();
+        if (!previous) {
+            count = 0;
+            System.out.println("no state for " + outputFileName + ", merging every occurrence");
+        }
+        int[] affected = affected(changed, occurrences.size());
+        System.out.println(changed.length + " changed days: merging " + affected.length + " of " + occurrences.size() + " occurrences");
+        MergedInfo[] merged = new MergedInfo[affected.length];
+        int[][] probes = new int[affected.length][];
+        if (affected.length > 0) {
+            merge(occurrences, affected, merged, probes);
+        }
+        Path tmp = Paths.get(outputFileName + ".tmp");
+        long[] newRowStart = new long[occurrences.size() + 1];
+        try (MergedInfoWriter writer = new MergedInfoWriter(tmp.toString(), MergedInfoWriter.Format.CSV);
+             FileChannel old = previous ? FileChannel.open(output, StandardOpenOption.READ) : null) {
+            int a = 0;
+            for (int i = 0; i < occurrences.size(); ) {
+                if (a < affected.length && affected[a] == i) {
+                    newRowStart[i] = writer.position();
+                    if (merged[a] != null) writer.write(merged[a]);
+                    a++;
+                    i++;
+                } else {
+                    //unchanged rows [i, j): one copy from the previous output
+                    int j = i + 1;
+                    while (j < count && (a == affected.length || affected[a] != j)) j++;
+                    long shift = writer.position() - rowStart[i];
+                    writer.copy(old, rowStart[i], rowStart[j] - rowStart[i]);
+                    for (int k = i; k < j; k++) {
+                        newRowStart[k] = rowStart[k] + shift;
+                    }
+                    i = j;
+                }
+            }
+            newRowStart[occurrences.size()] = writer.position();
+        }
+        Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        int[] newProbeFirst = Arrays.copyOf(probeFirst, occurrences.size());
+        int[] newProbeLast = Arrays.copyOf(probeLast, occurrences.size());
+        for (int a = 0; a < affected.length; a++) {
+            newProbeFirst[affected[a]] = probes[a][0];
+            newProbeLast[affected[a]] = probes[a][1];
+        }
+        count = occurrences.size();
+        occurrenceBytes = occurrenceSize;
+        probeFirst = newProbeFirst;
+        probeLast = newProbeLast;
+        rowStart = newRowStart;
+        writeState(statePath, output, occurrencePath);
+        detections.clearPendingDays();
+    }
+
+    /**
+     * @param changed days with new detections, ascending
+     * @param occurrenceCount number of occurrences now
+     * @return the occurrences to merge again, ascending: the ones whose probed days include a changed day, and the new ones
+     */
+    int[] affected(int[] changed, int occurrenceCount) {
+        int[] res = new int[occurrenceCount];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            //first changed day on or after probeFirst
+            int k = Arrays.binarySearch(changed, probeFirst[i]);
+            if (k < 0) k = -k - 1;
+            if (k < changed.length && changed[k] <= probeLast[i]) {
+                res[n++] = i;
+            }
+        }
+        for (int i = count; i < occurrenceCount; i++) {
+            res[n++] = i;
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    /**
+     * Merge the affected occurrences on the months of the detection store from the earliest day they probe.
+     * A fire that starts on the first loaded day may have started earlier: those occurrences are merged again on a
+     * window twice as long, until their fires start inside it or the whole history is loaded
+     * @param merged receives the MergedInfo (or null) of each affected occurrence
+     * @param probes receives the {first, last} probed day of each affected occurrence
+     */
+    private void merge(List<OccurInfo> occurrences, int[] affected, MergedInfo[] merged, int[][] probes) throws IOException {
+        int[] months = detections.months();
+        if (months.length == 0) {
+            for (int a = 0; a < affected.length; a++) {
+                probes[a] = new int[] {occurrences.get(affected[a]).day, occurrences.get(affected[a]).day};
+            }
+            return;
+        }
+        int firstDay = Integer.MAX_VALUE;
+        for (int i : affected) {
+            firstDay = Math.min(firstDay, i < count ? probeFirst[i] : occurrences.get(i).day);
+        }
+        int lastMonth = months[months.length - 1];
+        int firstMonth = Math.max(months[0], Math.min(lastMonth, DetectionStore.monthOf(firstDay)));
+        int[] todo = IntStream.range(0, affected.length).toArray();
+        while (true) {
+            ModisColumnStore window = detections.load(firstMonth);
+            window.buildIndexes();
+            Combiner combiner = new Combiner();
+            combiner.areaEngine = areaEngine;
+            combiner.setStore(window);
+            int windowFirstDay = firstMonth == months[0] ? Integer.MIN_VALUE : DetectionStore.firstDayOf(firstMonth);
+            todo = mergeOn(combiner, occurrences, affected, todo, merged, probes, windowFirstDay);
+            System.out.println("merged on " + window.size + " detections from " + LocalDate.ofEpochDay(DetectionStore.firstDayOf(firstMonth))
+                    + (todo.length > 0 ? ", " + todo.length + " fires start before" : ""));
+            if (todo.length == 0) return;
+            firstMonth = Math.max(months[0], lastMonth + 1 - 2 * (lastMonth + 1 - firstMonth));
+        }
+    }
+
+    /**
+     * Merge the occurrences affected[todo[t]] on the loaded window
+     * @param windowFirstDay first loaded day, or Integer.MIN_VALUE if the whole history is loaded
+     * @return the todo entries whose fire reaches the first loaded day, so the window is too short for them
+     */
+    private int[] mergeOn(Combiner combiner, List<OccurInfo> occurrences, int[] affected, int[] todo, MergedInfo[] merged, int[][] probes, int windowFirstDay) {
+        ThreadLocal<Combiner> workers = ThreadLocal.withInitial(combiner::worker);
+        try {
+            return ForkJoinPool.commonPool().submit(() -> IntStream.of(todo).parallel().filter(a -> {
+                Combiner worker = workers.get();
+                OccurInfo occurInfo = occurrences.get(affected[a]);
+                StartEndDateRangeInfo info = worker.df.getStartToEndFirePixelRangesByOccurrence(occurInfo.lat, occurInfo.lng, occurInfo.day);
+                if (info == null) {
+                    probes[a] = new int[] {occurInfo.day, occurInfo.day};
+                    merged[a] = null;
+                    return false;
+                }
+                probes[a] = new int[] {info.startDay - 1, info.endDay + 1};
+                merged[a] = worker.mergeRanges(occurInfo, info);
+                return info.startDay <= windowFirstDay;
+            }).toArray()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("merge interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("merge failed", e.getCause());
+        }
+    }
+
+    /**
+     * Load the state of the output
+     * @return false if there is no state, or it does not match the current output file, the start of the
+     * occurrence file or the area engine
+     */
+    boolean readState(Path statePath, Path output, Path occurrencePath) throws IOException {
+        if (!Files.isRegularFile(output)) return false;
+        try (SnapshotIO.Reader in = SnapshotIO.open(statePath, SnapshotIO.KIND_MERGE_STATE, FileFingerprint.of(output))) {
+            if (in == null || in.getInt() != areaEngine.ordinal()) return false;
+            long bytes = in.getLong();
+            if (!FileFingerprint.read(in).equals(FileFingerprint.ofPrefix(occurrencePath, bytes))) return false;
+            occurrenceBytes = bytes;
+            count = in.getInt();
+            probeFirst = in.getInts(count);
+            probeLast = in.getInts(count);
+            rowStart = in.getLongs(count + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Write the state of the output, tied to the current content of the output file and to the first
+     * occurrenceBytes bytes of the occurrence file by their fingerprints
+     */
+    void writeState(Path statePath, Path output, Path occurrencePath) throws IOException {
+        try (SnapshotIO.Writer out = SnapshotIO.create(statePath, SnapshotIO.KIND_MERGE_STATE, FileFingerprint.of(output))) {
+            out.putInt(areaEngine.ordinal());
+            out.putLong(occurrenceBytes);
+            FileFingerprint.ofPrefix(occurrencePath, occurrenceBytes).write(out);
+            out.putInt(count);
+            out.putInts(probeFirst, 0, count);
+            out.putInts(probeLast, 0, count);
+            out.putLongs(rowStart, 0, count + 1);
+            out.commit();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Progress of a merge run (see Combiner.mergeAndWriteToCSV): the occurrences [0, occurrences) are merged and their rows
+ * are the first outputBytes bytes of the output file, which were forced to disk before the checkpoint was written.
+ * The checkpoint is a snapshot file (see SnapshotIO) next to the output, so it is replaced atomically, and it records
+ * the fingerprints of both input files and the area engine: a run is only resumed on the same inputs and settings.
+ */
+public class MergeCheckpoint {
+    static final String SUFFIX = ".checkpoint";
+
+    FileFingerprint modis;
+    FileFingerprint occurrence;
+    AreaCalculator.Engine engine;
+    boolean useTracks;
+    int occurrences; //index of the first occurrence that is not merged yet
+    long outputBytes;
+    long rows;
+
+    MergeCheckpoint(FileFingerprint modis, FileFingerprint occurrence, AreaCalculator.Engine engine, boolean useTracks) {
+        this.modis = modis;
+        this.occurrence = occurrence;
+        this.engine = engine;
+        this.useTracks = useTracks;
+    }
+
+    /**
+     * @param outputFileName
+     * @return path of the checkpoint of the given output file (written next to it)
+     */
+    static Path pathOf(String outputFileName) {
+        return Paths.get(outputFileName + SUFFIX);
+    }
+
+    /**
+     * Atomically replace the checkpoint file with this progress
+     * @param path
+     * @throws IOException
+     */
+    void write(Path path) throws IOException {
+        try (SnapshotIO.Writer out = SnapshotIO.create(path, SnapshotIO.KIND_CHECKPOINT, modis)) {
+            occurrence.write(out);
+            out.putInt(engine.ordinal());
+            out.putInt(useTracks ? 1 : 0);
+            out.putInt(occurrences);
+            out.putLong(outputBytes);
+            out.putLong(rows);
+            out.commit();
+        }
+    }
+
+    /**
+     * @param path
+     * @param expected inputs and settings of the run to resume
+     * @return the checkpoint, or null if there is none, or it was made from other input files or with other settings
+     * @throws IOException
+     */
+    static MergeCheckpoint read(Path path, MergeCheckpoint expected) throws IOException {
+        SnapshotIO.Reader in = SnapshotIO.open(path, SnapshotIO.KIND_CHECKPOINT, expected.modis);
+        if (in == null) return null;
+        try {
+            if (!FileFingerprint.read(in).equals(expected.occurrence) || in.getInt() != expected.engine.ordinal()
+                    || (in.getInt() == 1) != expected.useTracks) {
+                return null;
+            }
+            MergeCheckpoint res = new MergeCheckpoint(expected.modis, expected.occurrence, expected.engine, expected.useTracks);
+            res.occurrences = in.getInt();
+            res.outputBytes = in.getLong();
+            res.rows = in.getLong();
+            return res;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return occurrences + " occurrences, " + rows + " rows (" + outputBytes + " bytes)";
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary columnar export of merged rows (MergedInfo plus the weather data of its OccurInfo), for loading
+ * the merged data without parsing CSV.
+ * The file is self-describing: a header (magic number, format version, row count, column count) is followed by a
+ * directory with the name, type, compression, offset and stored length of each column, then the column data.
+ * Columns are little-endian primitives: doubles, dates as int epoch days (Integer.MIN_VALUE for no date),
+ * and the movement direction as a byte code (see MergedInfoWriter.directionNum). Each column can be stored raw
+ * or deflate-compressed; raw columns start at 8-byte aligned offsets so the Reader can use them in place.
+ * Files are written through SnapshotIO.Writer, so they only appear once complete.
+ */
+public class MergedColumns {
+    static final int MAGIC = 0x57464d43; // "WFMC"
+    static final int VERSION = 1;
+    static final int TYPE_DOUBLE = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_BYTE = 3;
+    static final int COMPRESSION_NONE = 0;
+    static final int COMPRESSION_DEFLATE = 1;
+
+    /**
+     * columns in the order of MergedInfoWriter.COLUMNS; movementDirection is stored once, as its code
+     */
+    static final String[] COLUMNS = {"lat", "lng", "reportDate", "startDate", "endDate", "peakDate", "duration",
+            "maxSize", "aveSize", "increaseSpreadRate", "decreaseSpreadRate", "movementDirection",
+            "temp", "td", "rh", "ws", "wg", "wdir", "pres", "vis", "precip", "rndays", "ffmc", "dmc", "dc", "bui", "isi", "fwi", "dsr"};
+    static final int[] TYPES = {TYPE_DOUBLE, TYPE_DOUBLE, TYPE_INT, TYPE_INT, TYPE_INT, TYPE_INT, TYPE_INT,
+            TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_BYTE,
+            TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_INT, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE,
+            TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE};
+
+    static int width(int type) {
+        return type == TYPE_DOUBLE ? 8 : type == TYPE_INT ? 4 : 1;
+    }
+
+    static int columnIndex(String name) {
+        for (int c = 0; c < COLUMNS.length; c++) {
+            if (COLUMNS[c].equals(name)) return c;
+        }
+        throw new IllegalArgumentException("unknown column " + name);
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Collects merged rows in primitive columns and writes them to a file
+     */
+    static class Writer {
+        private int rows;
+        private final double[][] doubles = new double[COLUMNS.length][];
+        private final int[][] ints = new int[COLUMNS.length][];
+        private byte[] directions = new byte[16];
+        private final boolean[] compressed = new boolean[COLUMNS.length];
+        //last converted date, rows of the same day repeat their dates
+        private long lastDateMillis = Long.MIN_VALUE;
+        private int lastEpochDay;
+
+        Writer() {
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (TYPES[c] == TYPE_DOUBLE) doubles[c] = new double[16];
+                if (TYPES[c] == TYPE_INT) ints[c] = new int[16];
+            }
+        }
+
+        /**
+         * Store a column deflate-compressed (smaller file, but the reader has to inflate it)
+         */
+        Writer compress(String column) {
+            compressed[columnIndex(column)] = true;
+            return this;
+        }
+
+        Writer compressAll() {
+            Arrays.fill(compressed, true);
+            return this;
+        }
+
+        int rows() {
+            return rows;
+        }
+
+        void add(MergedInfo mergedInfo) {
+            if (rows == directions.length) {
+                grow(rows * 2);
+            }
+            OccurInfo occurInfo = mergedInfo.occurInfo;
+            int c = 0;
+            doubles[c++][rows] = value(mergedInfo.lat);
+            doubles[c++][rows] = value(mergedInfo.lng);
+            ints[c++][rows] = epochDay(mergedInfo.reportDate);
+            ints[c++][rows] = epochDay(mergedInfo.startDate);
+            ints[c++][rows] = epochDay(mergedInfo.endDate);
+            ints[c++][rows] = epochDay(mergedInfo.peakDate);
+            ints[c++][rows] = mergedInfo.duration;
+            doubles[c++][rows] = value(mergedInfo.maxSize);
+            doubles[c++][rows] = value(mergedInfo.aveSize);
+            doubles[c++][rows] = value(mergedInfo.increaseSpreadRate);
+            doubles[c++][rows] = value(mergedInfo.decreaseSpreadRate);
+            directions[rows] = (byte) MergedInfoWriter.directionNum(mergedInfo.movementDirection);
+            c++;
+            doubles[c++][rows] = occurInfo.temp;
+            doubles[c++][rows] = occurInfo.td;
+            doubles[c++][rows] = occurInfo.rh;
+            doubles[c++][rows] = occurInfo.ws;
+            doubles[c++][rows] = occurInfo.wg;
+            ints[c++][rows] = occurInfo.wdir;
+            doubles[c++][rows] = occurInfo.pres;
+            doubles[c++][rows] = occurInfo.vis;
+            doubles[c++][rows] = occurInfo.precip;
+            doubles[c++][rows] = occurInfo.rndays;
+            doubles[c++][rows] = occurInfo.ffmc;
+            doubles[c++][rows] = occurInfo.dmc;
+            doubles[c++][rows] = occurInfo.dc;
+            doubles[c++][rows] = occurInfo.bui;
+            doubles[c++][rows] = occurInfo.isi;
+            doubles[c++][rows] = occurInfo.fwi;
+            doubles[c][rows] = occurInfo.dsr;
+            rows++;
+        }
+
+        private static double value(Double v) {
+            return v == null ? Double.NaN : v;
+        }
+
+        private int epochDay(Date date) {
+            if (date == null) return Integer.MIN_VALUE;
+            if (date.getTime() != lastDateMillis) {
+                lastDateMillis = date.getTime();
+                lastEpochDay = MyDate.toEpochDay(date);
+            }
+            return lastEpochDay;
+        }
+
+        private void grow(int capacity) {
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (doubles[c] != null) doubles[c] = Arrays.copyOf(doubles[c], capacity);
+                if (ints[c] != null) ints[c] = Arrays.copyOf(ints[c], capacity);
+            }
+            directions = Arrays.copyOf(directions, capacity);
+        }
+
+        /**
+         * @return the little-endian bytes of column c
+         */
+        private byte[] encode(int c) {
+            ByteBuffer b = ByteBuffer.allocate(rows * width(TYPES[c])).order(ByteOrder.LITTLE_ENDIAN);
+            if (TYPES[c] == TYPE_DOUBLE) {
+                b.asDoubleBuffer().put(doubles[c], 0, rows);
+            } else if (TYPES[c] == TYPE_INT) {
+                b.asIntBuffer().put(ints[c], 0, rows);
+            } else {
+                b.put(directions, 0, rows);
+            }
+            return b.array();
+        }
+
+        private static byte[] deflate(byte[] raw) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, raw.length / 2)];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            deflater.end();
+            return Arrays.copyOf(out, n);
+        }
+
+        /**
+         * Write all the rows added so far to a file (replacing it atomically)
+         * @param path
+         * @throws IOException
+         */
+        void write(Path path) throws IOException {
+            byte[][] data = new byte[COLUMNS.length][];
+            long headerSize = 16;
+            for (int c = 0; c < COLUMNS.length; c++) {
+                data[c] = compressed[c] ? deflate(encode(c)) : encode(c);
+                headerSize += 28 + COLUMNS[c].length();
+            }
+            long[] offsets = new long[COLUMNS.length];
+            long offset = align8(headerSize);
+            for (int c = 0; c < COLUMNS.length; c++) {
+                offsets[c] = offset;
+                offset = align8(offset + data[c].length);
+            }
+            byte[] padding = new byte[8];
+            try (SnapshotIO.Writer out = new SnapshotIO.Writer(path)) {
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(rows);
+                out.putInt(COLUMNS.length);
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    byte[] name = COLUMNS[c].getBytes(StandardCharsets.US_ASCII);
+                    out.putInt(TYPES[c]);
+                    out.putInt(compressed[c] ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+                    out.putLong(offsets[c]);
+                    out.putLong(data[c].length);
+                    out.putInt(name.length);
+                    out.putBytes(name, 0, name.length);
+                }
+                long pos = headerSize;
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    out.putBytes(padding, 0, (int) (offsets[c] - pos));
+                    out.putBytes(data[c], 0, data[c].length);
+                    pos = offsets[c] + data[c].length;
+                }
+                out.commit();
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a columnar file. Raw columns are views of the mapped file (no copy);
+     * compressed columns are inflated once, on first use.
+     * The column names and types are taken from the file's directory, not from COLUMNS.
+     */
+    static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer file;
+        final int rows;
+        final String[] names;
+        final int[] types;
+        private final int[] compression;
+        private final long[] offsets;
+        private final long[] lengths;
+        private final ByteBuffer[] columns;
+
+        Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("columnar file larger than 2 GB: " + path);
+            }
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (file.limit() < 16 || file.getInt() != MAGIC || file.getInt() != VERSION) {
+                channel.close();
+                throw new IOException("not a merged columnar file (or another version): " + path);
+            }
+            rows = file.getInt();
+            int columnCount = file.getInt();
+            names = new String[columnCount];
+            types = new int[columnCount];
+            compression = new int[columnCount];
+            offsets = new long[columnCount];
+            lengths = new long[columnCount];
+            columns = new ByteBuffer[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                types[c] = file.getInt();
+                compression[c] = file.getInt();
+                offsets[c] = file.getLong();
+                lengths[c] = file.getLong();
+                byte[] name = new byte[file.getInt()];
+                file.get(name);
+                names[c] = new String(name, StandardCharsets.US_ASCII);
+                if (offsets[c] + lengths[c] > file.limit()) {
+                    channel.close();
+                    throw new IOException("truncated columnar file: column " + names[c] + " of " + path);
+                }
+            }
+        }
+
+        int column(String name) {
+            for (int c = 0; c < names.length; c++) {
+                if (names[c].equals(name)) return c;
+            }
+            throw new IllegalArgumentException("no column " + name);
+        }
+
+        /**
+         * @return the raw little-endian bytes of column c (inflated if needed)
+         */
+        private synchronized ByteBuffer bytes(int c) throws IOException {
+            if (columns[c] == null) {
+                ByteBuffer stored = file.duplicate();
+                stored.position((int) offsets[c]).limit((int) (offsets[c] + lengths[c]));
+                stored = stored.slice();
+                if (compression[c] == COMPRESSION_DEFLATE) {
+                    byte[] in = new byte[stored.remaining()];
+                    stored.get(in);
+                    byte[] raw = new byte[rows * width(types[c])];
+                    Inflater inflater = new Inflater();
+                    inflater.setInput(in);
+                    try {
+                        int n = 0;
+                        while (n < raw.length && !inflater.finished()) {
+                            int k = inflater.inflate(raw, n, raw.length - n);
+                            if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                            n += k;
+                        }
+                        if (n != raw.length) {
+                            throw new IOException("corrupt column " + names[c] + ": " + n + " of " + raw.length + " bytes");
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("corrupt column " + names[c], e);
+                    } finally {
+                        inflater.end();
+                    }
+                    stored = ByteBuffer.wrap(raw);
+                } else if (stored.remaining() != rows * width(types[c])) {
+                    throw new IOException("corrupt column " + names[c] + ": " + stored.remaining() + " bytes");
+                }
+                columns[c] = stored.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return columns[c].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private ByteBuffer bytes(String name, int type) throws IOException {
+            int c = column(name);
+            if (types[c] != type) {
+                throw new IllegalArgumentException("column " + name + " has type " + types[c] + ", not " + type);
+            }
+            return bytes(c);
+        }
+
+        DoubleBuffer doubles(String name) throws IOException {
+            return bytes(name, TYPE_DOUBLE).asDoubleBuffer();
+        }
+
+        IntBuffer ints(String name) throws IOException {
+            return bytes(name, TYPE_INT).asIntBuffer();
+        }
+
+        ByteBuffer bytes(String name) throws IOException {
+            return bytes(name, TYPE_BYTE);
+        }
+
+        double[] getDoubles(String name) throws IOException {
+            double[] res = new double[rows];
+            doubles(name).get(res);
+            return res;
+        }
+
+        int[] getInts(String name) throws IOException {
+            int[] res = new int[rows];
+            ints(name).get(res);
+            return res;
+        }
+
+        byte[] getBytes(String name) throws IOException {
+            byte[] res = new byte[rows];
+            bytes(name).get(res);
+            return res;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Date;
+
+/**
+ * Writes MergedInfo rows (with the weather data of their OccurInfo) to a file as CSV, TSV or newline-delimited JSON.
+ * Rows are formatted straight into one large reusable byte buffer, which is written to the file channel when full:
+ * numbers are converted to ASCII digits without creating Strings, and dates are written as ISO yyyy-MM-dd.
+ * Doubles are written as the shortest decimal that reads back as the same double when that needs at most
+ * MAX_FAST_FRACTION_DIGITS fraction digits (most weather values), and with Double.toString otherwise.
+ * Call flush() to push the buffered rows to the file; close() flushes and then always closes the file.
+ * Not thread safe: one writer per output file.
+ */
+public class MergedInfoWriter implements Closeable, Flushable {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    /**
+     * a row never takes more than this many bytes (31 fields of at most ~25 bytes plus the JSON keys)
+     */
+    static final int MAX_ROW_BYTES = 4096;
+    static final int MAX_FAST_FRACTION_DIGITS = 8;
+
+    /**
+     * output column names: same as the order of MergedInfo and OccurInfo
+     */
+    static final String[] COLUMNS = {"lat", "lng", "reportDate", "startDate", "endDate", "peakDate", "duration",
+            "maxSize", "aveSize", "increaseSpreadRate", "decreaseSpreadRate", "movementDirection", "movementDirectionNum",
+            "temp", "td", "rh", "ws", "wg", "wdir", "pres", "vis", "precip", "rndays", "ffmc", "dmc", "dc", "bui", "isi", "fwi", "dsr"};
+
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    /**
+     * Output formats. CSV and TSV start with a header line; NDJSON writes one JSON object per line,
+     * with null for NaN values (JSON has no NaN).
+     */
+    enum Format {
+        CSV((byte) ','), TSV((byte) '\t'), NDJSON((byte) ',');
+
+        final byte separator;
+
+        Format(byte separator) {
+            this.separator = separator;
+        }
+
+        /**
+         * @param fileName
+         * @return TSV for .tsv files, NDJSON for .ndjson and .jsonl files, CSV otherwise
+         */
+        static Format forFileName(String fileName) {
+            String name = fileName.toLowerCase();
+            if (name.endsWith(".tsv")) return TSV;
+            if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) return NDJSON;
+            return CSV;
+        }
+    }
+
+    final Format format;
+    private final FileChannel channel;
+    private final byte[] buf;
+    private final ByteBuffer byteBuffer;
+    private int pos;
+    private int column; //column of the next field in the current row
+    private final byte[][] keys; //NDJSON: "name": of each column
+    //last formatted date, rows of the same day repeat their dates
+    private long lastDateMillis = Long.MIN_VALUE;
+    private final byte[] lastDate = new byte[10];
+    private long rows;
+
+    MergedInfoWriter(String fileName) throws IOException {
+        this(fileName, Format.forFileName(fileName), DEFAULT_BUFFER_SIZE);
+    }
+
+    MergedInfoWriter(String fileName, Format format) throws IOException {
+        this(fileName, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    MergedInfoWriter(String fileName, Format format, int bufferSize) throws IOException {
+        this(new FileOutputStream(fileName).getChannel(), format, bufferSize, true);
+    }
+
+    private MergedInfoWriter(FileChannel channel, Format format, int bufferSize, boolean header) throws IOException {
+        this.format = format;
+        this.buf = new byte[Math.max(bufferSize, 2 * MAX_ROW_BYTES)];
+        this.byteBuffer = ByteBuffer.wrap(buf);
+        this.keys = new byte[COLUMNS.length][];
+        for (int c = 0; c < COLUMNS.length; c++) {
+            keys[c] = ("\"" + COLUMNS[c] + "\":").getBytes();
+        }
+        this.channel = channel;
+        if (header && format != Format.NDJSON) {
+            writeHeader();
+        }
+    }
+
+    /**
+     * Continue an output file written by an earlier writer (see Combiner.mergeAndWriteToCSV): the bytes after length,
+     * i.e. rows written after the last checkpoint, are cut off and new rows are appended from there, without a header
+     * @param fileName
+     * @param format format of the existing file
+     * @param length bytes of the file to keep
+     * @return writer positioned at length
+     * @throws IOException if the file is shorter than length
+     */
+    static MergedInfoWriter append(String fileName, Format format, long length) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE);
+        if (channel.size() < length) {
+            channel.close();
+            throw new IOException(fileName + " has " + channel.size() + " bytes, expected at least " + length);
+        }
+        channel.truncate(length);
+        channel.position(length);
+        return new MergedInfoWriter(channel, format, DEFAULT_BUFFER_SIZE, false);
+    }
+
+    private void writeHeader() throws IOException {
+        for (int c = 0; c < COLUMNS.length; c++) {
+            if (c > 0) buf[pos++] = format.separator;
+            putAscii(COLUMNS[c]);
+        }
+        buf[pos++] = '\n';
+    }
+
+    /**
+     * Append one row
+     * @param mergedInfo
+     * @throws IOException
+     */
+    void write(MergedInfo mergedInfo) throws IOException {
+        if (buf.length - pos < MAX_ROW_BYTES) {
+            drain();
+        }
+        column = 0;
+        if (format == Format.NDJSON) buf[pos++] = '{';
+        putDouble(mergedInfo.lat);
+        putDouble(mergedInfo.lng);
+        putDate(mergedInfo.reportDate);
+        putDate(mergedInfo.startDate);
+        putDate(mergedInfo.endDate);
+        putDate(mergedInfo.peakDate);
+        putInt(mergedInfo.duration);
+        putDouble(mergedInfo.maxSize);
+        putDouble(mergedInfo.aveSize);
+        putDouble(mergedInfo.increaseSpreadRate);
+        putDouble(mergedInfo.decreaseSpreadRate);
+        putString(mergedInfo.movementDirection);
+        putInt(directionNum(mergedInfo.movementDirection));
+        //weather data from occurInfo
+        OccurInfo occurInfo = mergedInfo.occurInfo;
+        putDouble(occurInfo.temp);
+        putDouble(occurInfo.td);
+        putDouble(occurInfo.rh);
+        putDouble(occurInfo.ws);
+        putDouble(occurInfo.wg);
+        putInt(occurInfo.wdir);
+        putDouble(occurInfo.pres);
+        putDouble(occurInfo.vis);
+        putDouble(occurInfo.precip);
+        putDouble(occurInfo.rndays);
+        putDouble(occurInfo.ffmc);
+        putDouble(occurInfo.dmc);
+        putDouble(occurInfo.dc);
+        putDouble(occurInfo.bui);
+        putDouble(occurInfo.isi);
+        putDouble(occurInfo.fwi);
+        putDouble(occurInfo.dsr);
+        if (format == Format.NDJSON) buf[pos++] = '}';
+        buf[pos++] = '\n';
+        rows++;
+    }
+
+    /**
+     * movementDirectionNum column: NW 0, NE 1, SW 2, anything else 3
+     */
+    static int directionNum(String movementDirection) {
+        if ("NW".equals(movementDirection)) return 0;
+        if ("NE".equals(movementDirection)) return 1;
+        if ("SW".equals(movementDirection)) return 2;
+        return 3;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    /**
+     * @return size of the file once the buffered rows are written
+     */
+    long position() throws IOException {
+        return channel.position() + pos;
+    }
+
+    /**
+     * separator (and NDJSON key) before the next field
+     */
+    private void nextField() {
+        if (column > 0) buf[pos++] = format.separator;
+        if (format == Format.NDJSON) {
+            byte[] key = keys[column];
+            System.arraycopy(key, 0, buf, pos, key.length);
+            pos += key.length;
+        }
+        column++;
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void putNull() {
+        System.arraycopy(NULL, 0, buf, pos, NULL.length);
+        pos += NULL.length;
+    }
+
+    private void putString(String s) {
+        nextField();
+        if (s == null) {
+            putNull();
+        } else if (format == Format.NDJSON) {
+            buf[pos++] = '"';
+            putAscii(s);
+            buf[pos++] = '"';
+        } else {
+            putAscii(s);
+        }
+    }
+
+    private void putInt(Integer value) {
+        nextField();
+        if (value == null) {
+            putNull();
+        } else {
+            putLong(value);
+        }
+    }
+
+    private void putLong(long v) {
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        //digits were written lowest first
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    private void putDouble(Double value) {
+        nextField();
+        if (value == null || (format == Format.NDJSON && (value.isNaN() || value.isInfinite()))) {
+            putNull();
+            return;
+        }
+        double v = value;
+        double abs = Math.abs(v);
+        //Double.toString switches to scientific notation outside [1e-3, 1e7)
+        if (abs >= 1e-3 && abs < 1e7) {
+            for (int k = 0; k <= MAX_FAST_FRACTION_DIGITS; k++) {
+                long scaled = Math.round(abs * POW10[k]);
+                //long and power of ten are exact, so the division gives exactly the double nearest to the decimal
+                if (scaled / POW10[k] == abs) {
+                    if (v < 0) buf[pos++] = '-';
+                    putDecimal(scaled, k);
+                    return;
+                }
+            }
+        } else if (v == 0) {
+            putAscii(1 / v < 0 ? "-0.0" : "0.0");
+            return;
+        }
+        putAscii(Double.toString(v));
+    }
+
+    /**
+     * write scaled / 10^fractionDigits, with at least one fraction digit like Double.toString
+     */
+    private void putDecimal(long scaled, int fractionDigits) {
+        if (fractionDigits == 0) {
+            putLong(scaled);
+            buf[pos++] = '.';
+            buf[pos++] = '0';
+            return;
+        }
+        long p = (long) POW10[fractionDigits];
+        putLong(scaled / p);
+        buf[pos++] = '.';
+        long fraction = scaled % p;
+        for (int d = fractionDigits - 1; d >= 0; d--) {
+            buf[pos + d] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        pos += fractionDigits;
+    }
+
+    private void putDate(Date date) {
+        nextField();
+        if (date == null) {
+            putNull();
+            return;
+        }
+        long millis = date.getTime();
+        if (millis != lastDateMillis) {
+            LocalDate d = LocalDate.ofEpochDay(MyDate.toEpochDay(date));
+            int year = d.getYear(), month = d.getMonthValue(), day = d.getDayOfMonth();
+            lastDate[0] = (byte) ('0' + year / 1000 % 10);
+            lastDate[1] = (byte) ('0' + year / 100 % 10);
+            lastDate[2] = (byte) ('0' + year / 10 % 10);
+            lastDate[3] = (byte) ('0' + year % 10);
+            lastDate[4] = '-';
+            lastDate[5] = (byte) ('0' + month / 10);
+            lastDate[6] = (byte) ('0' + month % 10);
+            lastDate[7] = '-';
+            lastDate[8] = (byte) ('0' + day / 10);
+            lastDate[9] = (byte) ('0' + day % 10);
+            lastDateMillis = millis;
+        }
+        if (format == Format.NDJSON) buf[pos++] = '"';
+        System.arraycopy(lastDate, 0, buf, pos, lastDate.length);
+        pos += lastDate.length;
+        if (format == Format.NDJSON) buf[pos++] = '"';
+    }
+
+    /**
+     * write the buffered bytes to the channel
+     */
+    private void drain() throws IOException {
+        byteBuffer.clear().limit(pos);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        pos = 0;
+    }
+
+    /**
+     * Write all the buffered rows to the file
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Append rows already formatted in another file (e.g. the unchanged rows of an earlier output, see IncrementalMerge)
+     * @param source file to copy from
+     * @param position first byte to copy
+     * @param count number of bytes to copy
+     * @throws IOException
+     */
+    void copy(FileChannel source, long position, long count) throws IOException {
+        drain();
+        while (count > 0) {
+            long n = source.transferTo(position, count, channel);
+            if (n <= 0) throw new IOException("unexpected end of file at " + position);
+            position += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * Write all the buffered rows and force them to the storage device, so they survive a crash
+     * @throws IOException
+     */
+    void sync() throws IOException {
+        drain();
+        channel.force(false);
+    }
+
+    /**
+     * Flush the buffered rows and close the file; the file is closed even if the flush fails
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar (struct-of-arrays) storage of Modis pixels.
+ * Each attribute of ModisInfo is kept in its own primitive array, so a pixel is just an index into the arrays.
+ * After buildDayIndex() the pixels are sorted by day (file order is kept inside a day)
+ * and every day owns a contiguous index range [dayStart(day), dayEnd(day)), found in O(1) through DayPartitions;
+ * a range of days is the contiguous index range [dayStart(firstDay), dayEnd(lastDay)).
+ * DataFinder, FireGrid and Combiner can work on these index ranges without creating ModisInfo objects.
+ */
+public class ModisColumnStore {
+    int size;
+    double[] lat;
+    double[] lng;
+    double[] brightness;
+    double[] scan;
+    double[] track;
+    int[] day; //days since 1970-01-01 (epoch day)
+    int[] time; //1805-> 18:05
+    int[] confidence;
+    BitSet isDay = new BitSet(); // day - set; night - clear
+    double[] frp; //fire radiative power
+
+    /**
+     * distinct days in ascending order, pixels of days[k] are in [dayOffsets[k], dayOffsets[k+1])
+     */
+    int[] days = new int[0];
+    int[] dayOffsets = new int[] {0};
+    /**
+     * dense per-day lookup of days[] and dayOffsets[], rebuilt whenever they change
+     */
+    DayPartitions partitions = new DayPartitions(days, dayOffsets, 0);
+    /**
+     * per-day bucket grid used by DataFinder, built by buildSpatialIndex()
+     */
+    DaySpatialIndex spatialIndex;
+    /**
+     * per-day fire clusters, built by buildClusters() or on first use by clusters()
+     */
+    private volatile FireClusters clusters;
+    /**
+     * clusters linked across days, built by buildClusters() or on first use by tracks()
+     */
+    private volatile FireTracks tracks;
+
+    double minLatitude = Double.MAX_VALUE;
+    double maxLatitude = -(Double.MAX_VALUE-1);
+    double minLongitude = Double.MAX_VALUE;
+    double maxLongitude = -(Double.MAX_VALUE-1);
+
+    ModisColumnStore() {
+        this(1024);
+    }
+
+    ModisColumnStore(int capacity) {
+        capacity = Math.max(capacity, 16);
+        lat = new double[capacity];
+        lng = new double[capacity];
+        brightness = new double[capacity];
+        scan = new double[capacity];
+        track = new double[capacity];
+        day = new int[capacity];
+        time = new int[capacity];
+        confidence = new int[capacity];
+        frp = new double[capacity];
+    }
+
+    /**
+     * Append one pixel at the end of the store. Call buildDayIndex() once all the pixels are added.
+     */
+    void add(double lt, double lg, double br, double sc, double tr, int dy, int tm, int cf, boolean dn, double fr) {
+        if (size == lat.length) {
+            grow(Math.max(16, size * 2));
+        }
+        lat[size] = lt;
+        lng[size] = lg;
+        brightness[size] = br;
+        scan[size] = sc;
+        track[size] = tr;
+        day[size] = dy;
+        time[size] = tm;
+        confidence[size] = cf;
+        isDay.set(size, dn);
+        frp[size] = fr;
+        if (lt < minLatitude) minLatitude = lt;
+        if (lt > maxLatitude) maxLatitude = lt;
+        if (lg < minLongitude) minLongitude = lg;
+        if (lg > maxLongitude) maxLongitude = lg;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        brightness = Arrays.copyOf(brightness, capacity);
+        scan = Arrays.copyOf(scan, capacity);
+        track = Arrays.copyOf(track, capacity);
+        day = Arrays.copyOf(day, capacity);
+        time = Arrays.copyOf(time, capacity);
+        confidence = Arrays.copyOf(confidence, capacity);
+        frp = Arrays.copyOf(frp, capacity);
+    }
+
+    /**
+     * Sort the pixels by day with a stable counting sort (pixels of the same day keep their file order)
+     * and build the per-day offset ranges.
+     */
+    void buildDayIndex() {
+        if (size < lat.length) {
+            grow(size);
+        }
+        if (size == 0) {
+            days = new int[0];
+            dayOffsets = new int[] {0};
+            partitions = new DayPartitions(days, dayOffsets, 0);
+            return;
+        }
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minDay = Math.min(minDay, day[i]);
+            maxDay = Math.max(maxDay, day[i]);
+        }
+        int[] counts = new int[maxDay - minDay + 2];
+        for (int i = 0; i < size; i++) {
+            counts[day[i] - minDay + 1]++;
+        }
+        int distinct = 0;
+        for (int k = 1; k < counts.length; k++) {
+            if (counts[k] > 0) distinct++;
+            counts[k] += counts[k - 1];
+        }
+        //counts[d - minDay] is now the first position of day d
+        int[] position = new int[size];
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            position[i] = counts[day[i] - minDay]++;
+            if (position[i] != i) sorted = false;
+        }
+        if (!sorted) {
+            lat = permute(lat, position);
+            lng = permute(lng, position);
+            brightness = permute(brightness, position);
+            scan = permute(scan, position);
+            track = permute(track, position);
+            day = permute(day, position);
+            time = permute(time, position);
+            confidence = permute(confidence, position);
+            frp = permute(frp, position);
+            BitSet sortedIsDay = new BitSet(size);
+            for (int i = isDay.nextSetBit(0); i >= 0; i = isDay.nextSetBit(i + 1)) {
+                sortedIsDay.set(position[i]);
+            }
+            isDay = sortedIsDay;
+        }
+        days = new int[distinct];
+        dayOffsets = new int[distinct + 1];
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || day[i] != day[i - 1]) {
+                days[k] = day[i];
+                dayOffsets[k] = i;
+                k++;
+            }
+        }
+        dayOffsets[distinct] = size;
+        partitions = new DayPartitions(days, dayOffsets, distinct);
+    }
+
+    /**
+     * Merge stores that were each sorted by buildDayIndex(), e.g. the chunks of a file parsed in parallel.
+     * For every day the pixels of parts[0] come first, then those of parts[1], and so on,
+     * so merging the chunks of a file in file order gives the same store as reading the file sequentially.
+     * @param parts day-indexed stores in file order
+     * @return a new day-indexed store with all the pixels
+     */
+    static ModisColumnStore merge(ModisColumnStore[] parts) {
+        int total = 0;
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        for (ModisColumnStore part : parts) {
+            total += part.size;
+            if (part.dayCount() > 0) {
+                minDay = Math.min(minDay, part.days[0]);
+                maxDay = Math.max(maxDay, part.days[part.dayCount() - 1]);
+            }
+        }
+        ModisColumnStore res = new ModisColumnStore(total);
+        if (total == 0) {
+            res.buildDayIndex();
+            return res;
+        }
+        //next free position of each day in the merged store
+        int[] next = new int[maxDay - minDay + 2];
+        for (ModisColumnStore part : parts) {
+            for (int k = 0; k < part.dayCount(); k++) {
+                next[part.days[k] - minDay + 1] += part.dayOffsets[k + 1] - part.dayOffsets[k];
+            }
+        }
+        int distinct = 0;
+        for (int d = 1; d < next.length; d++) {
+            if (next[d] > 0) distinct++;
+            next[d] += next[d - 1];
+        }
+        res.days = new int[distinct];
+        res.dayOffsets = new int[distinct + 1];
+        int k = 0;
+        for (int d = 0; d + 1 < next.length; d++) {
+            if (next[d + 1] > next[d]) {
+                res.days[k] = d + minDay;
+                res.dayOffsets[k] = next[d];
+                k++;
+            }
+        }
+        res.dayOffsets[distinct] = total;
+        res.partitions = new DayPartitions(res.days, res.dayOffsets, distinct);
+        for (ModisColumnStore part : parts) {
+            for (int j = 0; j < part.dayCount(); j++) {
+                int from = part.dayOffsets[j];
+                int len = part.dayOffsets[j + 1] - from;
+                int to = next[part.days[j] - minDay];
+                next[part.days[j] - minDay] += len;
+                System.arraycopy(part.lat, from, res.lat, to, len);
+                System.arraycopy(part.lng, from, res.lng, to, len);
+                System.arraycopy(part.brightness, from, res.brightness, to, len);
+                System.arraycopy(part.scan, from, res.scan, to, len);
+                System.arraycopy(part.track, from, res.track, to, len);
+                System.arraycopy(part.day, from, res.day, to, len);
+                System.arraycopy(part.time, from, res.time, to, len);
+                System.arraycopy(part.confidence, from, res.confidence, to, len);
+                System.arraycopy(part.frp, from, res.frp, to, len);
+                for (int i = part.isDay.nextSetBit(from); i >= 0 && i < from + len; i = part.isDay.nextSetBit(i + 1)) {
+                    res.isDay.set(to + i - from);
+                }
+            }
+            res.minLatitude = Math.min(res.minLatitude, part.minLatitude);
+            res.maxLatitude = Math.max(res.maxLatitude, part.maxLatitude);
+            res.minLongitude = Math.min(res.minLongitude, part.minLongitude);
+            res.maxLongitude = Math.max(res.maxLongitude, part.maxLongitude);
+        }
+        res.size = total;
+        return res;
+    }
+
+    /**
+     * Write the store as a snapshot: per-day offsets followed by one fixed-width column per attribute
+     * @param path snapshot file
+     * @param source fingerprint of the CSV file the store was read from
+     * @throws IOException
+     */
+    void writeSnapshot(Path path, FileFingerprint source) throws IOException {
+        try (SnapshotIO.Writer out = SnapshotIO.create(path, SnapshotIO.KIND_MODIS, source)) {
+            out.putInt(size);
+            out.putInt(days.length);
+            out.putDouble(minLatitude);
+            out.putDouble(maxLatitude);
+            out.putDouble(minLongitude);
+            out.putDouble(maxLongitude);
+            out.putInts(days, 0, days.length);
+            out.putInts(dayOffsets, 0, days.length + 1);
+            out.putDoubles(lat, 0, size);
+            out.putDoubles(lng, 0, size);
+            out.putDoubles(brightness, 0, size);
+            out.putDoubles(scan, 0, size);
+            out.putDoubles(track, 0, size);
+            out.putDoubles(frp, 0, size);
+            out.putInts(day, 0, size);
+            out.putInts(time, 0, size);
+            out.putInts(confidence, 0, size);
+            long[] words = Arrays.copyOf(isDay.toLongArray(), (size + 63) / 64);
+            out.putLongs(words, 0, words.length);
+            out.commit();
+        }
+    }
+
+    /**
+     * Load a store from a snapshot written by writeSnapshot()
+     * @param path snapshot file
+     * @param source fingerprint of the CSV file the snapshot should have been made from
+     * @return the store, or null if the snapshot is missing or stale
+     * @throws IOException
+     */
+    static ModisColumnStore readSnapshot(Path path, FileFingerprint source) throws IOException {
+        SnapshotIO.Reader in = SnapshotIO.open(path, SnapshotIO.KIND_MODIS, source);
+        if (in == null) return null;
+        try {
+            ModisColumnStore store = new ModisColumnStore(0);
+            store.size = in.getInt();
+            int dayCount = in.getInt();
+            store.minLatitude = in.getDouble();
+            store.maxLatitude = in.getDouble();
+            store.minLongitude = in.getDouble();
+            store.maxLongitude = in.getDouble();
+            store.days = in.getInts(dayCount);
+            store.dayOffsets = in.getInts(dayCount + 1);
+            store.partitions = new DayPartitions(store.days, store.dayOffsets, dayCount);
+            store.lat = in.getDoubles(store.size);
+            store.lng = in.getDoubles(store.size);
+            store.brightness = in.getDoubles(store.size);
+            store.scan = in.getDoubles(store.size);
+            store.track = in.getDoubles(store.size);
+            store.frp = in.getDoubles(store.size);
+            store.day = in.getInts(store.size);
+            store.time = in.getInts(store.size);
+            store.confidence = in.getInts(store.size);
+            store.isDay = BitSet.valueOf(in.getLongs((store.size + 63) / 64));
+            return store;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static double[] permute(double[] values, int[] position) {
+        double[] res = new double[values.length];
+        for (int i = 0; i < position.length; i++) {
+            res[position[i]] = values[i];
+        }
+        return res;
+    }
+
+    private static int[] permute(int[] values, int[] position) {
+        int[] res = new int[values.length];
+        for (int i = 0; i < position.length; i++) {
+            res[position[i]] = values[i];
+        }
+        return res;
+    }
+
+    /**
+     * @param epochDay
+     * @return position of the day in days[], or -1 if there is no pixel on that day
+     */
+    int dayIndex(int epochDay) {
+        return partitions.rank(epochDay);
+    }
+
+    /**
+     * @param epochDay
+     * @return index of the first pixel of the given day (equal to dayEnd() if there is no pixel on that day)
+     */
+    int dayStart(int epochDay) {
+        return partitions.from(epochDay);
+    }
+
+    /**
+     * @param epochDay
+     * @return index after the last pixel of the given day
+     */
+    int dayEnd(int epochDay) {
+        return partitions.to(epochDay);
+    }
+
+    /**
+     * Build the per-day spatial index. Call once the pixels are sorted by day.
+     */
+    void buildSpatialIndex() {
+        spatialIndex = new DaySpatialIndex(this);
+    }
+
+    /**
+     * Cluster the pixels of every day with the given adjacency threshold and link the clusters into tracks.
+     * Needs the spatial index.
+     */
+    synchronized void buildClusters(double adjacentRecThreshold) {
+        FireClusters c = new FireClusters(this, adjacentRecThreshold);
+        tracks = new FireTracks(c);
+        clusters = c;
+    }
+
+    /**
+     * Build the indexes every lookup uses once the pixels are sorted by day: the spatial index.
+     * Clusters and tracks are only needed by the track mode and the cumulative areas, so they are built on first use
+     */
+    void buildIndexes() {
+        buildSpatialIndex();
+    }
+
+    /**
+     * @return the clusters for DataFinder's general-use adjacency threshold (or the ones of buildClusters()),
+     * built on the first call
+     */
+    FireClusters clusters() {
+        FireClusters c = clusters;
+        if (c == null) {
+            buildTracksOnce();
+            c = clusters;
+        }
+        return c;
+    }
+
+    /**
+     * @return the tracks of clusters(), built on the first call
+     */
+    FireTracks tracks() {
+        FireTracks t = tracks;
+        if (t == null) {
+            buildTracksOnce();
+            t = tracks;
+        }
+        return t;
+    }
+
+    private synchronized void buildTracksOnce() {
+        if (clusters != null) return;
+        if (spatialIndex == null) buildSpatialIndex();
+        buildClusters(DataFinder.ADJACENT_REC_THRESHOLD);
+    }
+
+    int dayCount() {
+        return days.length;
+    }
+
+    /**
+     * @return number of pixels of the largest day (scratch buffers for one day's pixels need no more)
+     */
+    int maxDaySize() {
+        return partitions.maxLength;
+    }
+
+    /**
+     * Create a ModisInfo object for one pixel, for code that still works on ModisInfo lists
+     * @param i pixel index
+     * @return ModisInfo
+     */
+    ModisInfo toModisInfo(int i) {
+        ModisInfo mi = new ModisInfo();
+        mi.lat = lat[i];
+        mi.lng = lng[i];
+        mi.brightness = brightness[i];
+        mi.scan = scan[i];
+        mi.track = track[i];
+        mi.date = MyDate.fromEpochDay(day[i]);
+        mi.day = day[i];
+        mi.time = time[i];
+        mi.confidence = confidence[i];
+        mi.isDay = isDay.get(i);
+        mi.frp = frp[i];
+        return mi;
+    }
+}
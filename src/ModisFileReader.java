@@ -1,9 +1,16 @@
-import java.awt.font.TextMeasurer;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * This class is used for loading Modis Data into a Map where key is the date and value is the list of corresponding ModisInfo
@@ -19,19 +26,35 @@ public class ModisFileReader {
 	static double minLatitude = Double.MAX_VALUE;
 	static double maxLatitude = -(Double.MAX_VALUE-1);
 	/**
-	 * Load Modis data in a map where key is the date and value is the list of corresponding ModisInfo objects
+	 * Load Modis data partitioned by day: modisInfoList sorted by epoch day (file order is kept inside a day),
+	 * the ModisInfo objects of day d being dayModisInfo[dayPartitions.from(d)] .. dayModisInfo[dayPartitions.to(d) - 1]
 	 */
-	static Map<Date, List<ModisInfo>> dateModisInfoMap = new HashMap<>();
+	static ModisInfo[] dayModisInfo = new ModisInfo[0];
+	static DayPartitions dayPartitions = new DayPartitions(new int[0], new int[] {0}, 0);
+	/**
+	 * Load Modis data in columnar form, sorted by day. Filled by readColumns() instead of the three structures above.
+	 */
+	static ModisColumnStore columnStore;
 
 	/**
 	 * Load Modis Data from the input file.
+	 * Columns are found by their header name, as in readColumns(), so the archive files, the NRT feeds and the VIIRS
+	 * files can all be read.
 	 * @param fileName
-	 * @throws FileNotFoundException
+	 * @throws IOException if the file can not be read or a column is missing
 	 */
-	public static void read(String fileName) throws FileNotFoundException {
+	public static void read(String fileName) throws IOException {
+		long t = PipelineStats.start();
+		int before = modisInfoList.size();
 		File file = new File(fileName);
 		Scanner sc = new Scanner(file);
-		sc.nextLine();
+		int[] columns;
+		try {
+			columns = findColumns(sc.nextLine().split(","), fileName);
+		} catch (IOException e) {
+			sc.close();
+			throw e;
+		}
 		while(sc.hasNext()) {
 			String line= sc.nextLine();
 			String[] array = line.split(",");
@@ -40,18 +63,387 @@ public class ModisFileReader {
 			rawData.add(temp);
 			try {
 				// Create new ModisInfo object to store current piece of Modis info.
-				ModisInfo curInfo = new ModisInfo(temp.get(0), temp.get(1), temp.get(2), temp.get(3), temp.get(4), temp.get(5), temp.get(6), temp.get(9), temp.get(12), temp.get(13));
-				// Update dateModisInfoMap when reading raw data from input file
+				ModisInfo curInfo = new ModisInfo(temp.get(columns[LAT]), temp.get(columns[LNG]), temp.get(columns[BRIGHTNESS]),
+						temp.get(columns[SCAN]), temp.get(columns[TRACK]), temp.get(columns[DATE]), temp.get(columns[TIME]),
+						temp.get(columns[CONFIDENCE]), temp.get(columns[FRP]), temp.get(columns[DAYNIGHT]));
 				modisInfoList.add(curInfo);
-				List<ModisInfo> l = dateModisInfoMap.getOrDefault(curInfo.date, new ArrayList<>());
-				l.add(curInfo);
-				dateModisInfoMap.put(new Date(curInfo.date.getTime()), l);
-
-			} catch (ParseException e) {
+			} catch (ParseException | NumberFormatException | IndexOutOfBoundsException e) {
 				e.printStackTrace();
 			}
 		}
 		sc.close();
+		// Update the day partitions with the raw data read so far
+		indexDays();
+		if (PipelineStats.ENABLED) PipelineStats.MODIS_CSV.read(fileName, modisInfoList.size() - before, t);
+	}
+
+	/**
+	 * Sort modisInfoList by day into dayModisInfo (stable counting sort) and build dayPartitions
+	 */
+	static void indexDays() {
+		int n = modisInfoList.size();
+		int first = Integer.MAX_VALUE;
+		int last = Integer.MIN_VALUE;
+		for (ModisInfo mi : modisInfoList) {
+			first = Math.min(first, mi.day);
+			last = Math.max(last, mi.day);
+		}
+		int[] counts = new int[n == 0 ? 1 : last - first + 2];
+		for (ModisInfo mi : modisInfoList) {
+			counts[mi.day - first + 1]++;
+		}
+		int distinct = 0;
+		for (int d = 1; d < counts.length; d++) {
+			if (counts[d] > 0) distinct++;
+		}
+		int[] days = new int[distinct];
+		int[] dayOffsets = new int[distinct + 1];
+		int k = 0;
+		for (int d = 1; d < counts.length; d++) {
+			if (counts[d] > 0) {
+				days[k] = first + d - 1;
+				dayOffsets[k] = counts[d - 1];
+				k++;
+			}
+			counts[d] += counts[d - 1];
+		}
+		dayOffsets[distinct] = n;
+		//counts[d - first] is now the first position of day d
+		ModisInfo[] sorted = new ModisInfo[n];
+		for (ModisInfo mi : modisInfoList) {
+			sorted[counts[mi.day - first]++] = mi;
+		}
+		dayModisInfo = sorted;
+		dayPartitions = new DayPartitions(days, dayOffsets, distinct);
+	}
+
+	/**
+	 * @param epochDay
+	 * @return view of the ModisInfo objects of the given day, in file order, or null if there are none
+	 */
+	static ModisInfoView getDay(int epochDay) {
+		int from = dayPartitions.from(epochDay);
+		int to = dayPartitions.to(epochDay);
+		return from == to ? null : new ModisInfoView(dayModisInfo, from, to);
+	}
+
+	/**
+	 * @param firstDay
+	 * @param lastDay
+	 * @return view of the ModisInfo objects from firstDay to lastDay (included), by day, without copying them
+	 */
+	static ModisInfoView getDays(int firstDay, int lastDay) {
+		int from = dayPartitions.from(firstDay);
+		return new ModisInfoView(dayModisInfo, from, Math.max(from, dayPartitions.to(lastDay)));
+	}
+
+	/**
+	 * Header names of the columns used by read() and readColumns().
+	 * VIIRS files name the brightness column bright_ti4.
+	 */
+	static final String[][] COLUMN_NAMES = {{"latitude"}, {"longitude"}, {"brightness", "bright_ti4"}, {"scan"}, {"track"},
+			{"acq_date"}, {"acq_time"}, {"confidence"}, {"frp"}, {"daynight"}};
+	static final int LAT = 0, LNG = 1, BRIGHTNESS = 2, SCAN = 3, TRACK = 4, DATE = 5, TIME = 6, CONFIDENCE = 7, FRP = 8, DAYNIGHT = 9;
+	/**
+	 * VIIRS confidence classes are stored as the lower bound of the matching MODIS confidence range
+	 */
+	static final int LOW_CONFIDENCE = 0, NOMINAL_CONFIDENCE = 30, HIGH_CONFIDENCE = 80;
+	/**
+	 * Files are mapped in regions of at most this many bytes, each ending on a line break
+	 */
+	static final long MAX_MAPPED_REGION = 1L << 30;
+	/**
+	 * Smallest byte range parsed by one task in readColumnsParallel()
+	 */
+	static final long MIN_PARALLEL_CHUNK = 1L << 20;
+
+	/**
+	 * Load Modis (or VIIRS) Data from the input file into a ModisColumnStore.
+	 * The file is memory-mapped and scanned byte by byte, so no String or ModisInfo object is created per row.
+	 * Columns are found by their header name, so files with extra columns (instrument, type) can be read too.
+	 * @param fileName
+	 * @return the loaded column store, sorted by day
+	 * @throws IOException
+	 */
+	public static ModisColumnStore readColumns(String fileName) throws IOException {
+		long t = PipelineStats.start();
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			//MODIS rows are about 70 bytes long
+			ModisColumnStore store = new ModisColumnStore((int) Math.min(Integer.MAX_VALUE - 8, fileSize / 64));
+			MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, 1 << 20));
+			CsvByteScanner sc = new CsvByteScanner(head, 0, head.limit());
+			if (!sc.hasNextLine()) {
+				throw new IOException("missing header in " + fileName);
+			}
+			int[] columns = findColumns(sc, fileName);
+			long[] bounds = splitAtLineBreaks(channel, sc.position(), fileSize, MAX_MAPPED_REGION);
+			for (int k = 0; k + 1 < bounds.length; k++) {
+				parseRegion(channel, bounds[k], bounds[k + 1], columns, store);
+			}
+			store.buildDayIndex();
+			store.buildIndexes();
+			columnStore = store;
+			if (PipelineStats.ENABLED) PipelineStats.MODIS_CSV.read(fileName, store.size, t);
+			return store;
+		}
+	}
+
+	/**
+	 * Parallel version of readColumns(): the file is split into line-aligned byte ranges,
+	 * each range is parsed and sorted by day on a ForkJoin worker into its own store,
+	 * and the stores are merged day by day in file order, so the result is identical to readColumns().
+	 * @param fileName
+	 * @param pool pool running the parse tasks
+	 * @return the loaded column store, sorted by day
+	 * @throws IOException
+	 */
+	public static ModisColumnStore readColumnsParallel(String fileName, ForkJoinPool pool) throws IOException {
+		long t = PipelineStats.start();
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, 1 << 20));
+			CsvByteScanner sc = new CsvByteScanner(head, 0, head.limit());
+			if (!sc.hasNextLine()) {
+				throw new IOException("missing header in " + fileName);
+			}
+			int[] columns = findColumns(sc, fileName);
+			//a few chunks per worker so that uneven chunks still keep every worker busy
+			long chunkSize = (fileSize - sc.position()) / (pool.getParallelism() * 4L) + 1;
+			chunkSize = Math.max(MIN_PARALLEL_CHUNK, Math.min(MAX_MAPPED_REGION, chunkSize));
+			long[] bounds = splitAtLineBreaks(channel, sc.position(), fileSize, chunkSize);
+			ModisColumnStore[] parts = new ModisColumnStore[bounds.length - 1];
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (int k = 0; k < parts.length; k++) {
+				final int chunk = k;
+				tasks.add(ForkJoinTask.adapt(() -> {
+					ModisColumnStore part = new ModisColumnStore((int) ((bounds[chunk + 1] - bounds[chunk]) / 64));
+					parseRegion(channel, bounds[chunk], bounds[chunk + 1], columns, part);
+					part.buildDayIndex();
+					parts[chunk] = part;
+					return null;
+				}));
+			}
+			try {
+				pool.submit(() -> ForkJoinTask.invokeAll(tasks)).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while reading " + fileName, e);
+			} catch (ExecutionException e) {
+				throw new IOException("failed to read " + fileName, e.getCause());
+			}
+			ModisColumnStore store = ModisColumnStore.merge(parts);
+			store.buildIndexes();
+			columnStore = store;
+			if (PipelineStats.ENABLED) PipelineStats.MODIS_CSV.read(fileName, store.size, t);
+			return store;
+		}
+	}
+
+	public static ModisColumnStore readColumnsParallel(String fileName) throws IOException {
+		return readColumnsParallel(fileName, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Load Modis Data from the binary snapshot of the input file, skipping CSV parsing.
+	 * If there is no snapshot, or the file has changed since the snapshot was written,
+	 * the file is parsed with readColumnsParallel() and the snapshot is (re)built.
+	 * @param fileName
+	 * @return the loaded column store, sorted by day
+	 * @throws IOException
+	 */
+	public static ModisColumnStore readColumnsCached(String fileName) throws IOException {
+		FileFingerprint source = FileFingerprint.of(Paths.get(fileName));
+		Path snapshot = SnapshotIO.snapshotPath(fileName);
+		ModisColumnStore store = null;
+		long t = PipelineStats.start();
+		try {
+			store = ModisColumnStore.readSnapshot(snapshot, source);
+		} catch (IOException e) {
+			e.printStackTrace(); //corrupted snapshot: rebuild it
+		}
+		if (store != null) {
+			store.buildIndexes();
+			if (PipelineStats.ENABLED) PipelineStats.MODIS_SNAPSHOT.read(fileName, store.size, t);
+		} else {
+			store = readColumnsParallel(fileName);
+			try {
+				store.writeSnapshot(snapshot, source);
+			} catch (IOException e) {
+				e.printStackTrace(); //the data is loaded, only the next start will be slower
+			}
+		}
+		columnStore = store;
+		return store;
+	}
+
+	/**
+	 * Read the header line and find the position of each column of COLUMN_NAMES
+	 * @param sc scanner positioned at the header line
+	 * @param fileName
+	 * @return column positions in the order of COLUMN_NAMES
+	 * @throws IOException if a column is missing
+	 */
+	static int[] findColumns(CsvByteScanner sc, String fileName) throws IOException {
+		int count = sc.nextLine();
+		String[] header = new String[count];
+		for (int f = 0; f < count; f++) {
+			header[f] = sc.getString(f);
+		}
+		return findColumns(header, fileName);
+	}
+
+	/**
+	 * Find the position of each column of COLUMN_NAMES in the header line
+	 * @param header names of the columns of the file
+	 * @param fileName
+	 * @return column positions in the order of COLUMN_NAMES
+	 * @throws IOException if a column is missing
+	 */
+	static int[] findColumns(String[] header, String fileName) throws IOException {
+		int[] columns = new int[COLUMN_NAMES.length];
+		Arrays.fill(columns, -1);
+		for (int f = 0; f < header.length; f++) {
+			String name = header[f].trim();
+			for (int c = 0; c < COLUMN_NAMES.length; c++) {
+				for (String alias : COLUMN_NAMES[c]) {
+					if (alias.equalsIgnoreCase(name) && columns[c] < 0) columns[c] = f;
+				}
+			}
+		}
+		for (int c = 0; c < COLUMN_NAMES.length; c++) {
+			if (columns[c] < 0) {
+				throw new IOException("missing column " + COLUMN_NAMES[c][0] + " in " + fileName);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Split [start, end) of the file into ranges of about regionSize bytes, each ending right after a line break
+	 * @return range boundaries: range k is [bounds[k], bounds[k+1])
+	 * @throws IOException
+	 */
+	static long[] splitAtLineBreaks(FileChannel channel, long start, long end, long regionSize) throws IOException {
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(start);
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long cur = start;
+		while (end - cur > regionSize) {
+			long pos = cur + regionSize;
+			long lineEnd = -1;
+			while (lineEnd < 0 && pos < end) {
+				probe.clear();
+				int n = channel.read(probe, pos);
+				if (n <= 0) break;
+				for (int i = 0; i < n; i++) {
+					if (probe.get(i) == '\n') {
+						lineEnd = pos + i + 1;
+						break;
+					}
+				}
+				pos += n;
+			}
+			if (lineEnd < 0 || lineEnd >= end) break;
+			bounds.add(lineEnd);
+			cur = lineEnd;
+		}
+		bounds.add(end);
+		long[] res = new long[bounds.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = bounds.get(i);
+		}
+		return res;
+	}
+
+	/**
+	 * Map [start, end) of the file and add every row in it to the store
+	 * @throws IOException
+	 */
+	static void parseRegion(FileChannel channel, long start, long end, int[] columns, ModisColumnStore store) throws IOException {
+		if (end <= start) return;
+		MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		CsvByteScanner sc = new CsvByteScanner(region, 0, region.limit());
+		while (sc.hasNextLine()) {
+			int count = sc.nextLine();
+			if (count == 1 && sc.isEmpty(0)) continue; //blank line
+			try {
+				store.add(sc.getDouble(columns[LAT]), sc.getDouble(columns[LNG]), sc.getDouble(columns[BRIGHTNESS]),
+						sc.getDouble(columns[SCAN]), sc.getDouble(columns[TRACK]), sc.getEpochDay(columns[DATE]),
+						sc.getInt(columns[TIME]), parseConfidence(sc, columns[CONFIDENCE]), sc.firstByte(columns[DAYNIGHT]) == 'D',
+						sc.getDouble(columns[FRP]));
+			} catch (NumberFormatException | IndexOutOfBoundsException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Same as parseConfidence(CsvByteScanner, int), for the String fields of read()
+	 */
+	static int parseConfidence(String value) {
+		switch (value.isEmpty() ? ' ' : value.charAt(0)) {
+			case 'l':
+				return LOW_CONFIDENCE;
+			case 'n':
+				return NOMINAL_CONFIDENCE;
+			case 'h':
+				return HIGH_CONFIDENCE;
+			default:
+				return Integer.parseInt(value);
+		}
+	}
+
+	/**
+	 * MODIS confidence is a number from 0 to 100, VIIRS confidence is a class: low, nominal or high
+	 */
+	static int parseConfidence(CsvByteScanner sc, int field) {
+		switch (sc.firstByte(field)) {
+			case 'l':
+				return LOW_CONFIDENCE;
+			case 'n':
+				return NOMINAL_CONFIDENCE;
+			case 'h':
+				return HIGH_CONFIDENCE;
+			default:
+				return sc.getInt(field);
+		}
+	}
+}
+
+/**
+ * Read-only List view of a range of a ModisInfo array: getting a sub list creates another view, never a copy
+ */
+class ModisInfoView extends AbstractList<ModisInfo> implements RandomAccess {
+	private final ModisInfo[] items;
+	private final int from;
+	private final int to;
+
+	ModisInfoView(ModisInfo[] items, int from, int to) {
+		this.items = items;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public ModisInfo get(int index) {
+		if (index < 0 || index >= to - from) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (to - from));
+		}
+		return items[from + index];
+	}
+
+	@Override
+	public int size() {
+		return to - from;
+	}
+
+	@Override
+	public ModisInfoView subList(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > to - from || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + (to - from));
+		}
+		return new ModisInfoView(items, from + fromIndex, from + toIndex);
 	}
 }
 
@@ -65,6 +457,7 @@ class ModisInfo {
 	Double scan;
 	Double track;
 	Date date;
+	int day; //days since 1970-01-01
 	Integer time; //1805-> 18:05
 	Integer confidence;
 	Boolean isDay; // day - true; night - false
@@ -81,10 +474,10 @@ class ModisInfo {
 		brightness = Double.parseDouble(br);
 		scan = Double.parseDouble(sc);
 		track = Double.parseDouble(tr);
-		SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
-		this.date  = formatter.parse(dt);
+		day = MyDate.parseEpochDay(dt);
+		this.date = MyDate.fromEpochDay(day);
 		time = Integer.parseInt(tm);
-		confidence = Integer.parseInt(cf);
+		confidence = ModisFileReader.parseConfidence(cf);
 		if (dn.equals("D")) {
 			isDay = true;
 		} else {
@@ -1,3 +1,6 @@
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -53,4 +56,67 @@ public class MyDate {
         return NDayAfter;
     }
 
+    /**
+     * Convert a date (midnight in the default time zone, as created by SimpleDateFormat) to days since 1970-01-01
+     * @param curDate
+     * @return epoch day of the input date
+     */
+    static int toEpochDay(Date curDate) {
+        return (int) curDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+    /**
+     * Convert days since 1970-01-01 back to a Date at midnight in the default time zone
+     * @param epochDay
+     * @return Date object of the input epoch day
+     */
+    static Date fromEpochDay(int epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+    /**
+     * Days since 1970-01-01 of a calendar date, without creating any object (same result as LocalDate.toEpochDay)
+     * @param year
+     * @param month 1 to 12
+     * @param day 1 to 31
+     * @return epoch day
+     */
+    static int epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Parse a yyyy-MM-dd date (as in the acq_date column of MODIS files) straight to days since 1970-01-01,
+     * without SimpleDateFormat, Calendar or time zone
+     * @param date
+     * @return epoch day
+     * @throws ParseException if the date is not yyyy-MM-dd
+     */
+    static int parseEpochDay(String date) throws ParseException {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            throw new ParseException("Unparseable date: \"" + date + "\"", 0);
+        }
+        int year = 0, month = 0, day = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 4 || i == 7) continue;
+            int digit = date.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new ParseException("Unparseable date: \"" + date + "\"", i);
+            }
+            if (i < 4) {
+                year = year * 10 + digit;
+            } else if (i < 7) {
+                month = month * 10 + digit;
+            } else {
+                day = day * 10 + digit;
+            }
+        }
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new ParseException("Unparseable date: \"" + date + "\"", 5);
+        }
+        return epochDay(year, month, day);
+    }
 }
@@ -1,5 +1,12 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -10,25 +17,182 @@ import java.util.*;
 public class OccurrenceFileReader {
     static List<OccurInfo> occurInfoList = new ArrayList<>();
     public static void read(String fileName) throws FileNotFoundException {
+        long t = PipelineStats.start();
+        int before = occurInfoList.size();
         File file = new File(fileName);
         Scanner sc = new Scanner(file);
         sc.nextLine(); //remove title
         while(sc.hasNext()) {
-            String line= sc.nextLine();
-            String[] array = line.split(",");
-            String date = array[2], latitude = array[43], longitude = array[44];
-            String temp = array[3], td = array[4], rh = array[5], ws = array[6], wg = array[7], wdir = array[8], pres = array[9], vis = array[10], precip = array[11];
-            String rndays = array[12], ffmc = array[14], dmc = array[15], dc = array[16], bui = array[17], isi = array[18], fwi = array[19], dsr = array[20];
-            try {
-                OccurInfo curInfo = new OccurInfo(latitude, longitude, date, temp, td, rh, ws, wg, wdir, pres, vis, precip, rndays, ffmc, dmc, dc, bui, isi, fwi, dsr);
+            OccurInfo curInfo = parseLine(sc.nextLine());
+            if (curInfo != null) {
                 occurInfoList.add(curInfo);
-            } catch (ParseException e) {
-                e.printStackTrace();
             }
-
         }
 //        System.out.println("done");//show progress
         sc.close();
+        if (PipelineStats.ENABLED) PipelineStats.OCCURRENCE_CSV.read(fileName, occurInfoList.size() - before, t);
+    }
+
+    /**
+     * Parse one row of the occurrence file
+     * @param line
+     * @return OccurInfo, or null if the date can not be parsed
+     */
+    static OccurInfo parseLine(String line) {
+        String[] array = line.split(",");
+        String date = array[2], latitude = array[43], longitude = array[44];
+        String temp = array[3], td = array[4], rh = array[5], ws = array[6], wg = array[7], wdir = array[8], pres = array[9], vis = array[10], precip = array[11];
+        String rndays = array[12], ffmc = array[14], dmc = array[15], dc = array[16], bui = array[17], isi = array[18], fwi = array[19], dsr = array[20];
+        try {
+            return new OccurInfo(latitude, longitude, date, temp, td, rh, ws, wg, wdir, pres, vis, precip, rndays, ffmc, dmc, dc, bui, isi, fwi, dsr);
+        } catch (ParseException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Open the occurrence file for reading one row at a time, without loading it into occurInfoList
+     * @param fileName
+     * @return iterator over the rows of the file; close it when done
+     * @throws IOException
+     */
+    public static OccurrenceIterator open(String fileName) throws IOException {
+        return new OccurrenceIterator(fileName);
+    }
+
+    /**
+     * Reads occurrence rows lazily, so only the current row is in memory
+     */
+    static class OccurrenceIterator implements Iterator<OccurInfo>, Closeable {
+        private final BufferedReader reader;
+        private final String fileName;
+        private OccurInfo nextInfo;
+        //rows read and time spent reading them, for PipelineStats
+        private long rows;
+        private long nanos;
+
+        OccurrenceIterator(String fileName) throws IOException {
+            this.fileName = fileName;
+            reader = new BufferedReader(new FileReader(fileName), 1 << 16);
+            reader.readLine(); //remove title
+            advance();
+        }
+
+        private void advance() throws IOException {
+            long t = PipelineStats.start();
+            nextInfo = null;
+            String line;
+            while (nextInfo == null && (line = reader.readLine()) != null) {
+                nextInfo = parseLine(line);
+            }
+            if (PipelineStats.ENABLED) {
+                nanos += System.nanoTime() - t;
+                if (nextInfo != null) rows++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextInfo != null;
+        }
+
+        @Override
+        public OccurInfo next() {
+            if (nextInfo == null) throw new NoSuchElementException();
+            OccurInfo res = nextInfo;
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return res;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+            if (PipelineStats.ENABLED) PipelineStats.OCCURRENCE_CSV.record(fileName, rows, nanos);
+        }
+    }
+
+    /**
+     * Load Occurrence Data from the binary snapshot of the input file, skipping CSV parsing.
+     * If there is no snapshot, or the file has changed since the snapshot was written,
+     * the file is parsed with read() and the snapshot is (re)built.
+     * Rows keep their file order (the merged output follows it), the date is stored as an epoch day column.
+     * @param fileName
+     * @throws IOException
+     */
+    public static void readCached(String fileName) throws IOException {
+        FileFingerprint source = FileFingerprint.of(Paths.get(fileName));
+        Path snapshot = SnapshotIO.snapshotPath(fileName);
+        List<OccurInfo> loaded = null;
+        long t = PipelineStats.start();
+        try {
+            loaded = readSnapshot(snapshot, source);
+        } catch (IOException e) {
+            e.printStackTrace(); //corrupted snapshot: rebuild it
+        }
+        if (loaded != null) {
+            occurInfoList.addAll(loaded);
+            if (PipelineStats.ENABLED) PipelineStats.OCCURRENCE_SNAPSHOT.read(fileName, loaded.size(), t);
+            return;
+        }
+        int first = occurInfoList.size();
+        read(fileName);
+        try {
+            writeSnapshot(occurInfoList.subList(first, occurInfoList.size()), snapshot, source);
+        } catch (IOException e) {
+            e.printStackTrace(); //the data is loaded, only the next start will be slower
+        }
+    }
+
+    static void writeSnapshot(List<OccurInfo> list, Path path, FileFingerprint source) throws IOException {
+        int n = list.size();
+        double[][] columns = new double[OccurInfo.DOUBLE_FIELDS][n];
+        int[] days = new int[n];
+        int[] wdir = new int[n];
+        for (int i = 0; i < n; i++) {
+            list.get(i).getDoubleFields(columns, i);
+            days[i] = list.get(i).day;
+            wdir[i] = list.get(i).wdir;
+        }
+        try (SnapshotIO.Writer out = SnapshotIO.create(path, SnapshotIO.KIND_OCCURRENCE, source)) {
+            out.putInt(n);
+            out.putInts(days, 0, n);
+            out.putInts(wdir, 0, n);
+            for (double[] column : columns) {
+                out.putDoubles(column, 0, n);
+            }
+            out.commit();
+        }
+    }
+
+    static List<OccurInfo> readSnapshot(Path path, FileFingerprint source) throws IOException {
+        SnapshotIO.Reader in = SnapshotIO.open(path, SnapshotIO.KIND_OCCURRENCE, source);
+        if (in == null) return null;
+        try {
+            int n = in.getInt();
+            int[] days = in.getInts(n);
+            int[] wdir = in.getInts(n);
+            double[][] columns = new double[OccurInfo.DOUBLE_FIELDS][];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = in.getDoubles(n);
+            }
+            List<OccurInfo> res = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                OccurInfo info = new OccurInfo();
+                info.setDoubleFields(columns, i);
+                info.date = MyDate.fromEpochDay(days[i]);
+                info.day = days[i];
+                info.wdir = wdir[i];
+                res.add(info);
+            }
+            return res;
+        } finally {
+            in.close();
+        }
     }
 }
 
@@ -38,6 +202,7 @@ class OccurInfo {
     Double lat; //43
     Double lng; //44
     Date date; //2
+    int day; //date in days since 1970-01-01
     Double temp; //3
     Double td; //4
     Double rh; //5
@@ -56,6 +221,13 @@ class OccurInfo {
     Double fwi; //19
     Double dsr; //20
 
+    /**
+     * number of Double fields, see getDoubleFields()
+     */
+    static final int DOUBLE_FIELDS = 18;
+
+    OccurInfo() {}
+
     OccurInfo (String lat, String lng, String date, String temp, String td, String rh, String ws, String wg, String wdir, String pres, String vis, String precip, String rndays, String ffmc, String dmc, String dc, String bui, String isi, String fwi, String dsr) throws ParseException {
         this.lat = Double.parseDouble(lat);
         this.lng = Double.parseDouble(lng);
@@ -63,6 +235,7 @@ class OccurInfo {
         //2019-04-25
 //        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
         this.date  = formatter.parse( date);
+        this.day = MyDate.toEpochDay(this.date);
         this.temp = Double.parseDouble(temp);
         this.td = Double.parseDouble(td);
         this.rh = Double.parseDouble(rh);
@@ -82,4 +255,38 @@ class OccurInfo {
         this.dsr = Double.parseDouble(dsr);
     }
 
+    /**
+     * copy the Double fields (all fields but date and wdir) into column[*][row]
+     */
+    void getDoubleFields(double[][] column, int row) {
+        double[] values = {lat, lng, temp, td, rh, ws, wg, pres, vis, precip, rndays, ffmc, dmc, dc, bui, isi, fwi, dsr};
+        for (int c = 0; c < DOUBLE_FIELDS; c++) {
+            column[c][row] = values[c];
+        }
+    }
+
+    /**
+     * set the Double fields from column[*][row], in the order of getDoubleFields()
+     */
+    void setDoubleFields(double[][] column, int row) {
+        lat = column[0][row];
+        lng = column[1][row];
+        temp = column[2][row];
+        td = column[3][row];
+        rh = column[4][row];
+        ws = column[5][row];
+        wg = column[6][row];
+        pres = column[7][row];
+        vis = column[8][row];
+        precip = column[9][row];
+        rndays = column[10][row];
+        ffmc = column[11][row];
+        dmc = column[12][row];
+        dc = column[13][row];
+        bui = column[14][row];
+        isi = column[15][row];
+        fwi = column[16][row];
+        dsr = column[17][row];
+    }
+
 }
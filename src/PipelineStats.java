@@ -0,0 +1,439 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Per-stage counters of a pipeline run: rows/s of the readers, days walked and pixels examined by the DataFinder
+ * lookups, calcSize latency and grid cells of FireGrid, and merged vs unmatched occurrences and output of Combiner.
+ * Enabled with -Dwildfire.stats=true. The counters are then published as JMX MBeans (wildfire:type=PipelineStats,stage=...),
+ * recorded as JFR events (category Wildfire) when a flight recording is running, and Combiner prints report() at the end.
+ * Every probe is guarded by the constant ENABLED, so when it is off (the default) the JIT removes the probes
+ * and a run costs the same as without them.
+ * Counters are LongAdders: the merge workers update them concurrently without contending on one variable.
+ */
+public class PipelineStats {
+    static final boolean ENABLED = Boolean.getBoolean("wildfire.stats");
+
+    static final Reader MODIS_CSV = new Reader("ModisFileReader");
+    static final Reader MODIS_SNAPSHOT = new Reader("ModisFileReader.snapshot");
+    static final Reader OCCURRENCE_CSV = new Reader("OccurrenceFileReader");
+    static final Reader OCCURRENCE_SNAPSHOT = new Reader("OccurrenceFileReader.snapshot");
+    static final Finder FINDER = new Finder();
+    static final Grid GRID = new Grid();
+    static final Merge MERGE = new Merge();
+
+    static {
+        if (ENABLED) {
+            register();
+        }
+    }
+
+    /**
+     * @return start time of a probe in nanoseconds, or 0 (without reading the clock) when disabled
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    private static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Reader reader : new Reader[] {MODIS_CSV, MODIS_SNAPSHOT, OCCURRENCE_CSV, OCCURRENCE_SNAPSHOT}) {
+                server.registerMBean(new StandardMBean(reader, ReaderMBean.class), objectName(reader.name));
+            }
+            server.registerMBean(new StandardMBean(FINDER, FinderMBean.class), objectName("DataFinder"));
+            server.registerMBean(new StandardMBean(GRID, GridMBean.class), objectName("FireGrid"));
+            server.registerMBean(new StandardMBean(MERGE, MergeMBean.class), objectName("Combiner"));
+        } catch (JMException e) {
+            e.printStackTrace(); //the counters still work, they are only not visible over JMX
+        }
+    }
+
+    private static ObjectName objectName(String stage) throws JMException {
+        return new ObjectName("wildfire:type=PipelineStats,stage=" + stage);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static double ratio(long a, long b) {
+        return b == 0 ? 0 : (double) a / b;
+    }
+
+    public interface ReaderMBean {
+        long getFiles();
+        long getRows();
+        double getSeconds();
+        double getRowsPerSecond();
+    }
+
+    /**
+     * Rows read by one reader (CSV parsing or snapshot loading)
+     */
+    static class Reader implements ReaderMBean {
+        final String name;
+        final LongAdder files = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        Reader(String name) {
+            this.name = name;
+        }
+
+        /**
+         * A file has been read
+         * @param fileName
+         * @param rowCount rows read
+         * @param startNanos start() at the beginning of the read
+         */
+        void read(String fileName, long rowCount, long startNanos) {
+            record(fileName, rowCount, System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Same as read, with the time spent reading measured by the caller (e.g. summed over the rows of a streaming reader)
+         * @param elapsed nanoseconds spent reading
+         */
+        void record(String fileName, long rowCount, long elapsed) {
+            files.increment();
+            rows.add(rowCount);
+            nanos.add(elapsed);
+            ReadEvent event = new ReadEvent();
+            if (event.shouldCommit()) {
+                event.reader = name;
+                event.file = fileName;
+                event.rows = rowCount;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+
+        public long getFiles() { return files.sum(); }
+        public long getRows() { return rows.sum(); }
+        public double getSeconds() { return seconds(nanos.sum()); }
+        public double getRowsPerSecond() { return ratio(rows.sum(), nanos.sum()) * 1e9; }
+
+        @Override
+        public String toString() {
+            return String.format("%-30s %,d files, %,d rows in %.3f s (%,.0f rows/s)", name, getFiles(), getRows(), getSeconds(), getRowsPerSecond());
+        }
+    }
+
+    public interface FinderMBean {
+        long getLookups();
+        long getFound();
+        long getDaysWalked();
+        long getPixelsExamined();
+        double getDaysWalkedPerLookup();
+        double getPixelsExaminedPerLookup();
+        double getSeconds();
+    }
+
+    /**
+     * Fire lookups of occurrences (DataFinder.getStartToEnd* and getFireTrackByOccurrence)
+     */
+    static class Finder implements FinderMBean {
+        final LongAdder lookups = new LongAdder();
+        final LongAdder found = new LongAdder();
+        final LongAdder daysWalked = new LongAdder();
+        final LongAdder pixelsExamined = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        /**
+         * @param days days searched by the lookup
+         * @param pixels pixels compared with the occurrence or with the previous pixel
+         * @param fire true if a fire was found
+         * @param startNanos start() at the beginning of the lookup
+         */
+        void lookup(int days, long pixels, boolean fire, long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            lookups.increment();
+            if (fire) found.increment();
+            daysWalked.add(days);
+            pixelsExamined.add(pixels);
+            nanos.add(elapsed);
+            LookupEvent event = new LookupEvent();
+            if (event.shouldCommit()) {
+                event.daysWalked = days;
+                event.pixelsExamined = pixels;
+                event.found = fire;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+
+        public long getLookups() { return lookups.sum(); }
+        public long getFound() { return found.sum(); }
+        public long getDaysWalked() { return daysWalked.sum(); }
+        public long getPixelsExamined() { return pixelsExamined.sum(); }
+        public double getDaysWalkedPerLookup() { return ratio(daysWalked.sum(), lookups.sum()); }
+        public double getPixelsExaminedPerLookup() { return ratio(pixelsExamined.sum(), lookups.sum()); }
+        public double getSeconds() { return seconds(nanos.sum()); }
+
+        @Override
+        public String toString() {
+            return String.format("%-30s %,d lookups (%,d found) in %.3f s of worker time: %.1f days walked, %,.0f pixels examined per lookup",
+                    "DataFinder", getLookups(), getFound(), getSeconds(), getDaysWalkedPerLookup(), getPixelsExaminedPerLookup());
+        }
+    }
+
+    public interface GridMBean {
+        long getCalcSizeCalls();
+        long getPixels();
+        long getCellsUsed();
+        long getCellsAllocated();
+        double getSeconds();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP90Micros();
+        double getP99Micros();
+        double getMaxMicros();
+        long[] getLatencyHistogram();
+    }
+
+    /**
+     * FireGrid.calcSize calls: latency histogram with power of 2 buckets (bucket b counts the calls taking
+     * [2^b, 2^(b+1)) ns), pixels, cells of the grids used and cell storage allocated by growing the pooled grids
+     */
+    static class Grid implements GridMBean {
+        final LongAdder[] buckets = new LongAdder[64];
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        final LongAdder calls = new LongAdder();
+        final LongAdder pixels = new LongAdder();
+        final LongAdder cellsUsed = new LongAdder();
+        final LongAdder cellsAllocated = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        Grid() {
+            for (int b = 0; b < buckets.length; b++) {
+                buckets[b] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param pixelCount pixels of the fire
+         * @param cells cells of the grid the fire was rasterized on
+         * @param startNanos start() at the beginning of calcSize
+         */
+        void sized(int pixelCount, int cells, long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(1, elapsed))].increment();
+            max.accumulate(elapsed);
+            calls.increment();
+            pixels.add(pixelCount);
+            cellsUsed.add(cells);
+            nanos.add(elapsed);
+            CalcSizeEvent event = new CalcSizeEvent();
+            if (event.shouldCommit()) {
+                event.pixels = pixelCount;
+                event.cells = cells;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+
+        /**
+         * @return upper bound in microseconds of the latency of the given share of the calls
+         */
+        double percentileMicros(double share) {
+            long total = calls.sum();
+            long count = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                count += buckets[b].sum();
+                if (count > 0 && count >= share * total) {
+                    return Math.min((double) (2L << b), max.get()) / 1000;
+                }
+            }
+            return 0;
+        }
+
+        public long getCalcSizeCalls() { return calls.sum(); }
+        public long getPixels() { return pixels.sum(); }
+        public long getCellsUsed() { return cellsUsed.sum(); }
+        public long getCellsAllocated() { return cellsAllocated.sum(); }
+        public double getSeconds() { return seconds(nanos.sum()); }
+        public double getMeanMicros() { return ratio(nanos.sum(), calls.sum()) / 1000; }
+        public double getP50Micros() { return percentileMicros(0.5); }
+        public double getP90Micros() { return percentileMicros(0.9); }
+        public double getP99Micros() { return percentileMicros(0.99); }
+        public double getMaxMicros() { return max.get() / 1000.0; }
+
+        public long[] getLatencyHistogram() {
+            long[] res = new long[buckets.length];
+            for (int b = 0; b < buckets.length; b++) {
+                res[b] = buckets[b].sum();
+            }
+            return res;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-30s %,d calcSize of %,d pixels in %.3f s of worker time: mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us;%n"
+                            + "%-30s %,d cells used (%.1f per pixel), %,d cells allocated",
+                    "FireGrid", getCalcSizeCalls(), getPixels(), getSeconds(), getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(), getMaxMicros(),
+                    "", getCellsUsed(), ratio(getCellsUsed(), getPixels()), getCellsAllocated());
+        }
+    }
+
+    public interface MergeMBean {
+        long getOccurrences();
+        long getMerged();
+        long getNotFound();
+        long getSingleDay();
+        double getMergeSeconds();
+        long getRowsWritten();
+        double getWriteSeconds();
+    }
+
+    /**
+     * Combiner: occurrences merged, with no fire found, or with a single-day fire (no merged row), and rows written
+     */
+    static class Merge implements MergeMBean {
+        final LongAdder occurrences = new LongAdder();
+        final LongAdder merged = new LongAdder();
+        final LongAdder singleDay = new LongAdder();
+        final LongAdder mergeNanos = new LongAdder();
+        final LongAdder rowsWritten = new LongAdder();
+        final LongAdder writeNanos = new LongAdder();
+
+        /**
+         * A batch of occurrences has been merged
+         * @param results one MergedInfo (or null) per occurrence
+         * @param startNanos start() at the beginning of the merge
+         */
+        void merged(MergedInfo[] results, long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            int count = 0;
+            for (MergedInfo mergedInfo : results) {
+                if (mergedInfo != null) count++;
+            }
+            occurrences.add(results.length);
+            merged.add(count);
+            mergeNanos.add(elapsed);
+            stage("merge", results.length, elapsed);
+        }
+
+        /**
+         * Merged rows have been written
+         */
+        void written(long rows, long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            rowsWritten.add(rows);
+            writeNanos.add(elapsed);
+            stage("write", rows, elapsed);
+        }
+
+        private static void stage(String name, long items, long elapsed) {
+            StageEvent event = new StageEvent();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.items = items;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+
+        public long getOccurrences() { return occurrences.sum(); }
+        public long getMerged() { return merged.sum(); }
+        public long getNotFound() { return occurrences.sum() - merged.sum() - singleDay.sum(); }
+        public long getSingleDay() { return singleDay.sum(); }
+        public double getMergeSeconds() { return seconds(mergeNanos.sum()); }
+        public long getRowsWritten() { return rowsWritten.sum(); }
+        public double getWriteSeconds() { return seconds(writeNanos.sum()); }
+
+        @Override
+        public String toString() {
+            return String.format("%-30s %,d occurrences in %.3f s: %,d merged, %,d no fire found, %,d single-day fires; %,d rows written in %.3f s",
+                    "Combiner", getOccurrences(), getMergeSeconds(), getMerged(), getNotFound(), getSingleDay(), getRowsWritten(), getWriteSeconds());
+        }
+    }
+
+    /**
+     * @return summary of all the stages, one line per stage; worker times are summed over the merge threads
+     */
+    static String report() {
+        StringBuilder sb = new StringBuilder("pipeline stats:");
+        for (Reader reader : new Reader[] {MODIS_CSV, MODIS_SNAPSHOT, OCCURRENCE_CSV, OCCURRENCE_SNAPSHOT}) {
+            if (reader.getFiles() > 0) {
+                sb.append(System.lineSeparator()).append("  ").append(reader);
+            }
+        }
+        for (Object stage : new Object[] {FINDER, GRID, MERGE}) {
+            sb.append(System.lineSeparator()).append("  ").append(stage);
+        }
+        return sb.toString();
+    }
+
+    @Name("wildfire.Read")
+    @Label("File Read")
+    @Category("Wildfire")
+    @Description("A MODIS or occurrence file (or snapshot) has been read")
+    static class ReadEvent extends Event {
+        @Label("Reader")
+        String reader;
+        @Label("File")
+        String file;
+        @Label("Rows")
+        long rows;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("wildfire.Lookup")
+    @Label("Fire Lookup")
+    @Category("Wildfire")
+    @Description("Fire of an occurrence searched by DataFinder")
+    static class LookupEvent extends Event {
+        @Label("Days Walked")
+        int daysWalked;
+        @Label("Pixels Examined")
+        long pixelsExamined;
+        @Label("Found")
+        boolean found;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("wildfire.CalcSize")
+    @Label("Fire Size")
+    @Category("Wildfire")
+    @Description("FireGrid.calcSize of one daily pixel set; off by default (one event per call), enable it in the recording settings")
+    @Enabled(false)
+    static class CalcSizeEvent extends Event {
+        @Label("Pixels")
+        int pixels;
+        @Label("Cells")
+        int cells;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("wildfire.Stage")
+    @Label("Combiner Stage")
+    @Category("Wildfire")
+    @Description("A batch of occurrences merged, or merged rows written")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Items")
+        long items;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fire size from an adaptive quadtree of coverage at a chosen resolution (cell side in KM).
+ * The root square covers the fire's pixels; a pixel rectangle marks every node it fully contains as covered,
+ * and only nodes crossed by a rectangle edge are split, down to cells of the target resolution, where a cell
+ * counts as covered if its center is inside the rectangle. Covered regions collapse into single nodes, so the work
+ * grows with the fire's perimeter / resolution instead of its area / resolution^2, and a fine resolution
+ * (e.g. 375 m for VIIRS) costs little more than 1 km.
+ * Pixels are placed with the same lat/lng to KM conversion as FireGrid.
+ */
+public class QuadtreeArea implements AreaCalculator {
+    static final double MODIS_RESOLUTION = 1.0; //KM
+    static final double VIIRS_RESOLUTION = 0.375; //KM
+    private static final double KM_PER_DEGREE = 2 * Math.PI * FireGrid.RADIUS / 360;
+    private static final byte EMPTY = 0, MIXED = 1, FULL = 2;
+
+    final double resolution;
+    Double[] centerPoint;
+
+    //nodes: children of a MIXED node n are firstChild[n] .. firstChild[n] + 3
+    private int[] firstChild = new int[64];
+    private byte[] state = new byte[64];
+    private int nodeCount;
+    //rectangle being inserted
+    private double rx1, rx2, ry1, ry2;
+
+    QuadtreeArea() {
+        this(MODIS_RESOLUTION);
+    }
+
+    /**
+     * @param resolution side of the smallest cells in KM
+     */
+    QuadtreeArea(double resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * @param store
+     * @return VIIRS_RESOLUTION if the store holds VIIRS pixels (scan below 1 km, which MODIS never reports),
+     * MODIS_RESOLUTION otherwise
+     */
+    static double resolutionOf(ModisColumnStore store) {
+        for (int i = 0; i < store.size; i++) {
+            if (store.scan[i] < 1.0) return VIIRS_RESOLUTION;
+        }
+        return MODIS_RESOLUTION;
+    }
+
+    @Override
+    public Double[] getCenterPoint() {
+        return centerPoint;
+    }
+
+    @Override
+    public double calcSize(List<ModisInfo> modisInfoList) {
+        if (modisInfoList == null || modisInfoList.size() == 0) return 0.0;
+        int n = modisInfoList.size();
+        double[] lat = new double[n], lng = new double[n], scan = new double[n], track = new double[n];
+        for (int i = 0; i < n; i++) {
+            ModisInfo mi = modisInfoList.get(i);
+            lat[i] = mi.lat;
+            lng[i] = mi.lng;
+            scan[i] = mi.scan;
+            track[i] = mi.track;
+        }
+        return calcSize(lat, lng, scan, track, null, 0, n);
+    }
+
+    @Override
+    public double calcSize(ModisColumnStore store, int from, int to) {
+        if (store == null || from >= to) return 0.0;
+        return calcSize(store.lat, store.lng, store.scan, store.track, null, from, to);
+    }
+
+    @Override
+    public double calcSize(ModisColumnStore store, int[] pixels, int from, int to) {
+        if (store == null || from >= to) return 0.0;
+        return calcSize(store.lat, store.lng, store.scan, store.track, pixels, from, to);
+    }
+
+    /**
+     * @param pixels indices of the pixels in the column arrays, or null for the index range [from, to)
+     */
+    private double calcSize(double[] lat, double[] lng, double[] scan, double[] track, int[] pixels, int from, int to) {
+        double minLatitude = Double.MAX_VALUE;
+        double maxLatitude = -(Double.MAX_VALUE-1);
+        double minLongitude = Double.MAX_VALUE;
+        double maxLongitude = -(Double.MAX_VALUE-1);
+        double maxScan = 0, maxTrack = 0;
+        for (int p = from; p < to; p++) {
+            int i = pixels == null ? p : pixels[p];
+            minLatitude = Math.min(minLatitude, lat[i]);
+            maxLatitude = Math.max(maxLatitude, lat[i]);
+            minLongitude = Math.min(minLongitude, lng[i]);
+            maxLongitude = Math.max(maxLongitude, lng[i]);
+            maxScan = Math.max(maxScan, scan[i]);
+            maxTrack = Math.max(maxTrack, track[i]);
+        }
+        centerPoint = new Double[] {(minLatitude + maxLatitude)/2, (minLongitude + maxLongitude)/2};
+        //root square: origin at the lower corner of all rectangles, side a power of two times the resolution
+        double x0 = -maxScan / 2, y0 = -maxTrack / 2;
+        double extent = Math.max((maxLatitude - minLatitude) * KM_PER_DEGREE + maxScan, (maxLongitude - minLongitude) * KM_PER_DEGREE + maxTrack);
+        double side = resolution;
+        while (side < extent) side *= 2;
+        nodeCount = 1;
+        state[0] = EMPTY;
+        for (int p = from; p < to; p++) {
+            int i = pixels == null ? p : pixels[p];
+            double c = (lat[i] - minLatitude) * KM_PER_DEGREE;
+            double r = (lng[i] - minLongitude) * KM_PER_DEGREE;
+            rx1 = c - scan[i] / 2;
+            rx2 = c + scan[i] / 2;
+            ry1 = r - track[i] / 2;
+            ry2 = r + track[i] / 2;
+            insert(0, x0, y0, side);
+        }
+        return coveredArea(0, side);
+    }
+
+    /**
+     * mark the part of node (square [x, x + size) x [y, y + size)) covered by the current rectangle
+     */
+    private void insert(int node, double x, double y, double size) {
+        if (state[node] == FULL || rx2 <= x || x + size <= rx1 || ry2 <= y || y + size <= ry1) return;
+        if (rx1 <= x && x + size <= rx2 && ry1 <= y && y + size <= ry2) {
+            state[node] = FULL; //children are dropped
+            return;
+        }
+        if (size <= resolution) {
+            //smallest cell: covered if its center is inside the rectangle
+            double cx = x + size / 2, cy = y + size / 2;
+            if (rx1 <= cx && cx < rx2 && ry1 <= cy && cy < ry2) state[node] = FULL;
+            return;
+        }
+        if (state[node] == EMPTY) {
+            split(node);
+        }
+        double half = size / 2;
+        int child = firstChild[node];
+        insert(child, x, y, half);
+        insert(child + 1, x + half, y, half);
+        insert(child + 2, x, y + half, half);
+        insert(child + 3, x + half, y + half, half);
+        if (state[child] == FULL && state[child + 1] == FULL && state[child + 2] == FULL && state[child + 3] == FULL) {
+            state[node] = FULL;
+        }
+    }
+
+    private void split(int node) {
+        if (nodeCount + 4 > state.length) {
+            state = Arrays.copyOf(state, state.length * 2);
+            firstChild = Arrays.copyOf(firstChild, firstChild.length * 2);
+        }
+        firstChild[node] = nodeCount;
+        Arrays.fill(state, nodeCount, nodeCount + 4, EMPTY);
+        nodeCount += 4;
+        state[node] = MIXED;
+    }
+
+    private double coveredArea(int node, double size) {
+        if (state[node] == FULL) return size * size;
+        if (state[node] == EMPTY) return 0;
+        int child = firstChild[node];
+        double half = size / 2;
+        return coveredArea(child, half) + coveredArea(child + 1, half) + coveredArea(child + 2, half) + coveredArea(child + 3, half);
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+}
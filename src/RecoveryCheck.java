@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runnable check of crash recovery on a small SyntheticWorkload.
+ * Every check leaves the files of an interrupted run on disk, finishes the run and compares its output, byte for
+ * byte, with the output of one uninterrupted Combiner.mergeAndWriteToCSV.
+ * The IncrementalMerge checks feed the detections as two NRT files that overlap by a few thousand rows.
+ * Usage: RecoveryCheck [work dir]; the files go to a new directory (in the work dir if given), one line is printed per
+ * check and the exit status is 1 if one fails.
+ */
+public class RecoveryCheck {
+    private final Path dir;
+    private String modisFileName;
+    private String occurrenceFileName;
+    private byte[] expected; //output of the uninterrupted run
+    private String[] feedFileNames;
+    private int failures;
+
+    RecoveryCheck(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Generate the inputs and the expected output
+     */
+    void setUp() throws IOException {
+        modisFileName = dir.resolve("modis.csv").toString();
+        occurrenceFileName = dir.resolve("occurrence.csv").toString();
+        SyntheticWorkload workload = new SyntheticWorkload();
+        workload.detections = 100_000;
+        workload.reportRate = 0.6;
+        workload.generate(modisFileName, occurrenceFileName);
+        String output = dir.resolve("expected.csv").toString();
+        merge(occurrenceFileName, output, false);
+        expected = Files.readAllBytes(Paths.get(output));
+        List<String> lines = Files.readAllLines(Paths.get(modisFileName));
+        int half = lines.size() / 2;
+        feedFileNames = new String[] {dir.resolve("feed1.csv").toString(), dir.resolve("feed2.csv").toString()};
+        Files.write(Paths.get(feedFileNames[0]), lines.subList(0, half));
+        List<String> second = new ArrayList<>();
+        second.add(lines.get(0)); //header
+        second.addAll(lines.subList(Math.max(1, half - 5000), lines.size()));
+        Files.write(Paths.get(feedFileNames[1]), second);
+    }
+
+    private void merge(String occurrenceFileName, String outputFileName, boolean resume) {
+        //mergeAndWriteToCSV adds to the shared occurrence list
+        OccurrenceFileReader.occurInfoList.clear();
+        new Combiner().mergeAndWriteToCSV(modisFileName, occurrenceFileName, outputFileName, resume);
+    }
+
+    /**
+     * A run killed while writing a batch: the checkpoint covers the first half of the occurrences and the output
+     * goes on with part of the next rows, cut in the middle of a row. Resuming cuts them off and merges the rest
+     */
+    void checkResumeAfterTruncatedBatch() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(occurrenceFileName));
+        int done = (lines.size() - 1) / 2;
+        //rows of the occurrences before the checkpoint: the same merge on the first half of the occurrence file
+        Path firstHalf = dir.resolve("occurrence-first-half.csv");
+        Files.write(firstHalf, lines.subList(0, done + 1));
+        String output = dir.resolve("resumed.csv").toString();
+        merge(firstHalf.toString(), output, false);
+        long outputBytes = Files.size(Paths.get(output));
+        long rows = Files.readAllLines(Paths.get(output)).size() - 1;
+        Files.write(Paths.get(output), Arrays.copyOfRange(expected, (int) outputBytes, (int) (outputBytes + expected.length) / 2),
+                StandardOpenOption.APPEND);
+        Combiner combiner = new Combiner();
+        MergeCheckpoint checkpoint = new MergeCheckpoint(FileFingerprint.of(Paths.get(modisFileName)),
+                FileFingerprint.of(Paths.get(occurrenceFileName)), combiner.areaEngine, combiner.useTracks);
+        checkpoint.occurrences = done;
+        checkpoint.outputBytes = outputBytes;
+        checkpoint.rows = rows;
+        checkpoint.write(MergeCheckpoint.pathOf(output));
+
+        merge(occurrenceFileName, output, true);
+        check("resume after a truncated batch", Arrays.equals(expected, Files.readAllBytes(Paths.get(output))));
+    }
+
+    /**
+     * A feed that is delivered again adds no detections and changes no day, so the refresh merges nothing
+     */
+    void checkDuplicateFeed() throws IOException {
+        Path storeDir = dir.resolve("store-duplicate");
+        String output = dir.resolve("duplicate.csv").toString();
+        DetectionStore detections = new DetectionStore(storeDir);
+        IncrementalMerge incremental = new IncrementalMerge(detections, AreaCalculator.Engine.GRID);
+        incremental.refresh(Arrays.asList(feedFileNames), occurrenceFileName, output);
+        int[] days = detections.append(ModisFileReader.readColumns(feedFileNames[1]));
+        check("duplicate feed: 0 new days", days.length == 0 && detections.pendingDays().length == 0
+                && incremental.affected(detections.pendingDays(), incremental.count).length == 0);
+        incremental.refresh(Collections.singletonList(feedFileNames[1]), occurrenceFileName, output);
+        check("duplicate feed: output unchanged", Arrays.equals(expected, Files.readAllBytes(Paths.get(output))));
+    }
+
+    /**
+     * A crash after DetectionStore.append journaled and stored the days of a feed, before the merge cleared them:
+     * either before the output was rewritten or after it. The next refresh, without feeds, merges the pending days
+     */
+    void checkCrashBeforeClearingPendingDays() throws IOException {
+        for (boolean outputWritten : new boolean[] {false, true}) {
+            String name = outputWritten ? "crash after the merge" : "crash before the merge";
+            Path storeDir = dir.resolve("store-" + (outputWritten ? "after" : "before"));
+            String output = dir.resolve((outputWritten ? "after" : "before") + ".csv").toString();
+            new IncrementalMerge(new DetectionStore(storeDir), AreaCalculator.Engine.GRID)
+                    .refresh(Collections.singletonList(feedFileNames[0]), occurrenceFileName, output);
+            new DetectionStore(storeDir).append(ModisFileReader.readColumns(feedFileNames[1]));
+            Path pending = storeDir.resolve(DetectionStore.PENDING);
+            if (outputWritten) {
+                //the merge finished but its clearPendingDays did not happen
+                Path kept = storeDir.resolve(DetectionStore.PENDING + ".kept");
+                Files.copy(pending, kept, StandardCopyOption.REPLACE_EXISTING);
+                new IncrementalMerge(new DetectionStore(storeDir), AreaCalculator.Engine.GRID)
+                        .refresh(Collections.emptyList(), occurrenceFileName, output);
+                Files.move(kept, pending, StandardCopyOption.REPLACE_EXISTING);
+            }
+            check(name + ": days still pending", new DetectionStore(storeDir).pendingDays().length > 0);
+            DetectionStore detections = new DetectionStore(storeDir);
+            new IncrementalMerge(detections, AreaCalculator.Engine.GRID).refresh(Collections.emptyList(), occurrenceFileName, output);
+            check(name + ": recovered output", Arrays.equals(expected, Files.readAllBytes(Paths.get(output)))
+                    && detections.pendingDays().length == 0);
+        }
+    }
+
+    private void check(String name, boolean ok) {
+        System.out.println((ok ? "ok      " : "FAILED  ") + name);
+        if (!ok) failures++;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Path dir = args.length > 0 ? Files.createTempDirectory(Files.createDirectories(Paths.get(args[0])), "recovery")
+                    : Files.createTempDirectory("recovery");
+            RecoveryCheck check = new RecoveryCheck(dir);
+            check.setUp();
+            check.checkResumeAfterTruncatedBatch();
+            check.checkDuplicateFeed();
+            check.checkCrashBeforeClearingPendingDays();
+            System.out.println(check.failures == 0 ? "all checks passed in " + dir : check.failures + " checks failed in " + dir);
+            if (check.failures > 0) System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
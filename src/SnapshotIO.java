@@ -0,0 +1,230 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reading and writing of the binary snapshot files that cache parsed CSV inputs.
+ * A snapshot starts with a header (magic number, format version, kind of data, fingerprint of the source CSV)
+ * followed by fixed-width little-endian primitive columns.
+ * Snapshots are written to a temporary file and renamed, so a crash never leaves a half-written snapshot behind.
+ */
+public class SnapshotIO {
+    static final int MAGIC = 0x57465350; // "WFSP"
+    static final int VERSION = 1;
+    static final int KIND_MODIS = 1;
+    static final int KIND_OCCURRENCE = 2;
+    static final int KIND_CHECKPOINT = 3;
+    static final int KIND_DAYS = 4;
+    static final int KIND_MERGE_STATE = 5;
+    static final String SUFFIX = ".snapshot";
+
+    /**
+     * @param csvFileName
+     * @return path of the snapshot of the given CSV file (written next to it)
+     */
+    static Path snapshotPath(String csvFileName) {
+        return Paths.get(csvFileName + SUFFIX);
+    }
+
+    /**
+     * Start a snapshot file: the header is written right away
+     */
+    static Writer create(Path path, int kind, FileFingerprint source) throws IOException {
+        Writer out = new Writer(path);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(kind);
+        source.write(out);
+        return out;
+    }
+
+    /**
+     * Open a snapshot file and check its header
+     * @return a reader positioned after the header, or null if the snapshot is missing,
+     * has another version or kind, or was made from a different version of the source file
+     */
+    static Reader open(Path path, int kind, FileFingerprint source) throws IOException {
+        if (!Files.isRegularFile(path)) return null;
+        Reader in = new Reader(path);
+        if (in.size < 12 + FileFingerprint.BYTES || in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt() != kind
+                || !FileFingerprint.read(in).equals(source)) {
+            in.close();
+            return null;
+        }
+        return in;
+    }
+
+    /**
+     * Buffered writer of primitive values and arrays
+     */
+    static class Writer implements Closeable {
+        private final Path path;
+        private final Path tmpPath;
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean committed;
+
+        Writer(Path path) throws IOException {
+            this.path = path;
+            this.tmpPath = Paths.get(path + ".tmp");
+            this.channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buf.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(8);
+            buf.putDouble(v);
+        }
+
+        void putInts(int[] values, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                ensure(4);
+                buf.putInt(values[i]);
+            }
+        }
+
+        void putDoubles(double[] values, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                ensure(8);
+                buf.putDouble(values[i]);
+            }
+        }
+
+        void putBytes(byte[] values, int from, int to) throws IOException {
+            while (from < to) {
+                ensure(1);
+                int n = Math.min(to - from, buf.remaining());
+                buf.put(values, from, n);
+                from += n;
+            }
+        }
+
+        void putLongs(long[] values, int from, int to) throws IOException {
+            for (int i = from; i < to; i++) {
+                ensure(8);
+                buf.putLong(values[i]);
+            }
+        }
+
+        /**
+         * Flush everything and atomically replace the target file with the written one
+         */
+        void commit() throws IOException {
+            flush();
+            channel.force(false);
+            channel.close();
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /**
+         * Close without commit() discards the file
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+
+    /**
+     * Reader of primitive values and arrays. Arrays are copied out of a memory-mapped region of the file.
+     */
+    static class Reader implements Closeable {
+        private final FileChannel channel;
+        final long size;
+        private long pos;
+
+        Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+        }
+
+        private ByteBuffer map(long bytes) throws IOException {
+            if (pos + bytes > size) {
+                throw new IOException("truncated snapshot: need " + bytes + " bytes at " + pos + " of " + size);
+            }
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, pos, bytes);
+            pos += bytes;
+            return region.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private ByteBuffer read(int bytes) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            while (b.hasRemaining()) {
+                if (channel.read(b, pos + b.position()) < 0) {
+                    throw new IOException("truncated snapshot: need " + bytes + " bytes at " + pos + " of " + size);
+                }
+            }
+            b.flip();
+            pos += bytes;
+            return b;
+        }
+
+        int getInt() throws IOException {
+            return read(4).getInt();
+        }
+
+        long getLong() throws IOException {
+            return read(8).getLong();
+        }
+
+        double getDouble() throws IOException {
+            return read(8).getDouble();
+        }
+
+        int[] getInts(int n) throws IOException {
+            int[] res = new int[n];
+            map(4L * n).asIntBuffer().get(res);
+            return res;
+        }
+
+        double[] getDoubles(int n) throws IOException {
+            double[] res = new double[n];
+            map(8L * n).asDoubleBuffer().get(res);
+            return res;
+        }
+
+        long[] getLongs(int n) throws IOException {
+            long[] res = new long[n];
+            map(8L * n).asLongBuffer().get(res);
+            return res;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
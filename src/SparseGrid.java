@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * Sparse version of FireGrid.Grid for pixel sets spread over a large bounding box.
+ * The grid has the same rows, columns and coverage rules as FireGrid.Grid, but cells are only stored where pixels
+ * touch the grid: in TILE_SIZE x TILE_SIZE tiles that are allocated on demand and found through an
+ * open-addressing map keyed by the tile position. Tile t owns cells [t * TILE_AREA, (t+1) * TILE_AREA) of the
+ * CellGrid arrays, so memory grows with the number of pixels, not with the area of the bounding box.
+ * countTotalCovered only visits the allocated tiles, in the same row by row order as FireGrid.Grid,
+ * so both grids return exactly the same size.
+ */
+public class SparseGrid extends CellGrid {
+    static final int TILE_SHIFT = 4;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    static final int TILE_AREA = TILE_SIZE * TILE_SIZE;
+    private static final ThreadLocal<SparseGrid> POOL = ThreadLocal.withInitial(SparseGrid::new);
+
+    //tile map: key (tile row, tile col) -> tile number
+    private long[] tileKeys;
+    private int[] tileIds;
+    private int mask;
+    private int tileCount;
+    private long[] tileKeyOf; //key of each tile, in allocation order
+
+    SparseGrid() {
+        tileKeys = new long[16];
+        tileIds = new int[16];
+        Arrays.fill(tileIds, -1);
+        mask = 15;
+        tileKeyOf = new long[4];
+        ensureCells(4 * TILE_AREA);
+    }
+
+    /**
+     * @param map0Lat the smallest latitude of the pixels
+     * @param map0Lng the smallest longitude of the pixels
+     * @param rlength number of rows, as in FireGrid.Grid
+     * @param clength number of columns, as in FireGrid.Grid
+     */
+    SparseGrid(double map0Lat, double map0Lng, int rlength, int clength) {
+        this();
+        reset(map0Lat, map0Lng, rlength, clength);
+    }
+
+    /**
+     * @return the SparseGrid of the current thread, reset for a new fire; valid until the next call on the same thread
+     */
+    static SparseGrid forThread(double map0Lat, double map0Lng, int rlength, int clength) {
+        SparseGrid grid = POOL.get();
+        grid.reset(map0Lat, map0Lng, rlength, clength);
+        return grid;
+    }
+
+    /**
+     * Start a new, empty grid: only the tiles used by the previous fire are cleared, and the memory is kept
+     */
+    @Override
+    void reset(double map0Lat, double map0Lng, int rlength, int clength) {
+        super.reset(map0Lat, map0Lng, rlength, clength);
+        clearCells(0, tileCount * TILE_AREA);
+        Arrays.fill(tileIds, -1);
+        tileCount = 0;
+    }
+
+    private static long tileKey(int row, int col) {
+        return ((long) (row >> TILE_SHIFT) << 32) | ((col >> TILE_SHIFT) & 0xffffffffL);
+    }
+
+    private int slot(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        int s = (h ^ (h >>> 16)) & mask;
+        while (tileIds[s] >= 0 && tileKeys[s] != key) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    @Override
+    int cell(int row, int col) {
+        long key = tileKey(row, col);
+        int s = slot(key);
+        int tile = tileIds[s];
+        if (tile < 0) {
+            tile = tileCount++;
+            if (tile == tileKeyOf.length) {
+                tileKeyOf = Arrays.copyOf(tileKeyOf, tile * 2);
+            }
+            ensureCells(tileCount * TILE_AREA);
+            tileKeyOf[tile] = key;
+            tileKeys[s] = key;
+            tileIds[s] = tile;
+            if (tileCount * 2 > mask) {
+                rehash();
+            }
+        }
+        return tile * TILE_AREA + ((row & (TILE_SIZE - 1)) << TILE_SHIFT) + (col & (TILE_SIZE - 1));
+    }
+
+    @Override
+    int find(int row, int col) {
+        int tile = tileIds[slot(tileKey(row, col))];
+        return tile < 0 ? -1 : tile * TILE_AREA + ((row & (TILE_SIZE - 1)) << TILE_SHIFT) + (col & (TILE_SIZE - 1));
+    }
+
+    private void rehash() {
+        int capacity = tileKeys.length * 2;
+        tileKeys = new long[capacity];
+        tileIds = new int[capacity];
+        Arrays.fill(tileIds, -1);
+        mask = capacity - 1;
+        for (int t = 0; t < tileCount; t++) {
+            int s = slot(tileKeyOf[t]);
+            tileKeys[s] = tileKeyOf[t];
+            tileIds[s] = t;
+        }
+    }
+
+    int tileCount() {
+        return tileCount;
+    }
+
+    @Override
+    int cellsInUse() {
+        return tileCount * TILE_AREA;
+    }
+
+    /**
+     * Calculation of the covered part's size in KM^2
+     * @return the covered part's size in KM^2
+     */
+    @Override
+    public double countTotalCovered() {
+        long[] keys = Arrays.copyOf(tileKeyOf, tileCount);
+        Arrays.sort(keys); //by tile row, then tile col
+        int[] tiles = new int[tileCount];
+        for (int t = 0; t < tileCount; t++) {
+            tiles[t] = tileIds[slot(keys[t])];
+        }
+        //one band of tiles (same tile row) at a time, row by row across the band
+        for (int b = 0; b < tileCount; ) {
+            int e = b;
+            while (e < tileCount && (keys[e] >> 32) == (keys[b] >> 32)) e++;
+            int row0 = (int) (keys[b] >> 32) << TILE_SHIFT;
+            for (int rr = 0; rr < TILE_SIZE; rr++) {
+                int row = row0 + rr;
+                if (row < 0 || row >= rlength) continue;
+                for (int t = b; t < e; t++) {
+                    int col0 = (int) keys[t] << TILE_SHIFT;
+                    int base = tiles[t] * TILE_AREA + (rr << TILE_SHIFT);
+                    for (int cc = 0; cc < TILE_SIZE; cc++) {
+                        int col = col0 + cc;
+                        if (col < 0 || col >= clength) continue;
+                        countTotal += covered(base + cc);
+                    }
+                }
+            }
+            b = e;
+        }
+        return countTotal; // 1km^2 unit
+    }
+}
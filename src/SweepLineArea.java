@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exact fire size: the area of the union of the pixels' scan x track rectangles (Klee's measure problem).
+ * Pixels are placed with the same lat/lng to KM conversion as FireGrid (lat along one axis, lng along the other),
+ * so the result is what FireGrid approximates, without the 1 km cells.
+ * A vertical line sweeps over the rectangles' left and right edges in x order; a segment tree over the
+ * distinct y edges keeps how many rectangles cover each y interval and the total covered length, so
+ * the area between two edges is covered length * x distance. O(n log n) time and O(n) memory for n pixels,
+ * independent of how far apart the pixels are.
+ */
+public class SweepLineArea implements AreaCalculator {
+    private static final double KM_PER_DEGREE = 2 * Math.PI * FireGrid.RADIUS / 360;
+
+    Double[] centerPoint;
+
+    //pixels of the current fire
+    private double[] lat = new double[0];
+    private double[] lng = new double[0];
+    private double[] scan = new double[0];
+    private double[] track = new double[0];
+    //their rectangles in KM
+    private double[] x1 = new double[0];
+    private double[] x2 = new double[0];
+    private double[] y1 = new double[0];
+    private double[] y2 = new double[0];
+    private int n;
+    //segment tree over the elementary y intervals [ys[i], ys[i+1])
+    private double[] ys;
+    private int[] count;
+    private double[] length;
+
+    @Override
+    public Double[] getCenterPoint() {
+        return centerPoint;
+    }
+
+    @Override
+    public double calcSize(List<ModisInfo> modisInfoList) {
+        if (modisInfoList == null || modisInfoList.size() == 0) return 0.0;
+        start(modisInfoList.size());
+        for (ModisInfo mi : modisInfoList) {
+            add(mi.lat, mi.lng, mi.scan, mi.track);
+        }
+        return finish();
+    }
+
+    @Override
+    public double calcSize(ModisColumnStore store, int from, int to) {
+        if (store == null || from >= to) return 0.0;
+        start(to - from);
+        for (int i = from; i < to; i++) {
+            add(store.lat[i], store.lng[i], store.scan[i], store.track[i]);
+        }
+        return finish();
+    }
+
+    @Override
+    public double calcSize(ModisColumnStore store, int[] pixels, int from, int to) {
+        if (store == null || from >= to) return 0.0;
+        start(to - from);
+        for (int p = from; p < to; p++) {
+            int i = pixels[p];
+            add(store.lat[i], store.lng[i], store.scan[i], store.track[i]);
+        }
+        return finish();
+    }
+
+    private void start(int pixelCount) {
+        if (x1.length < pixelCount) {
+            lat = new double[pixelCount];
+            lng = new double[pixelCount];
+            scan = new double[pixelCount];
+            track = new double[pixelCount];
+            x1 = new double[pixelCount];
+            x2 = new double[pixelCount];
+            y1 = new double[pixelCount];
+            y2 = new double[pixelCount];
+        }
+        n = 0;
+    }
+
+    private void add(double lt, double lg, double sc, double tr) {
+        lat[n] = lt;
+        lng[n] = lg;
+        scan[n] = sc;
+        track[n] = tr;
+        n++;
+    }
+
+    private double finish() {
+        double minLatitude = Double.MAX_VALUE;
+        double maxLatitude = -(Double.MAX_VALUE-1);
+        double minLongitude = Double.MAX_VALUE;
+        double maxLongitude = -(Double.MAX_VALUE-1);
+        for (int i = 0; i < n; i++) {
+            minLatitude = Math.min(minLatitude, lat[i]);
+            maxLatitude = Math.max(maxLatitude, lat[i]);
+            minLongitude = Math.min(minLongitude, lng[i]);
+            maxLongitude = Math.max(maxLongitude, lng[i]);
+        }
+        centerPoint = new Double[] {(minLatitude + maxLatitude)/2, (minLongitude + maxLongitude)/2};
+        //rectangles in KM, relative to the smallest lat and lng to keep the coordinates small;
+        //scan is along the lat axis and track along the lng axis, as in FireGrid
+        for (int i = 0; i < n; i++) {
+            double c = (lat[i] - minLatitude) * KM_PER_DEGREE;
+            double r = (lng[i] - minLongitude) * KM_PER_DEGREE;
+            double halfScan = scan[i] / 2, halfTrack = track[i] / 2;
+            x1[i] = c - halfScan;
+            x2[i] = c + halfScan;
+            y1[i] = r - halfTrack;
+            y2[i] = r + halfTrack;
+        }
+        return unionArea();
+    }
+
+    /**
+     * @return rank of v in the sorted distinct values sorted[0..size)
+     */
+    private static int rank(double[] sorted, int size, double v) {
+        return Arrays.binarySearch(sorted, 0, size, v);
+    }
+
+    private static int distinct(double[] sorted) {
+        Arrays.sort(sorted);
+        int m = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (m == 0 || sorted[i] != sorted[m - 1]) sorted[m++] = sorted[i];
+        }
+        return m;
+    }
+
+    private double unionArea() {
+        //distinct x and y edges
+        double[] xs = new double[2 * n];
+        ys = new double[2 * n];
+        for (int i = 0; i < n; i++) {
+            xs[2 * i] = x1[i];
+            xs[2 * i + 1] = x2[i];
+            ys[2 * i] = y1[i];
+            ys[2 * i + 1] = y2[i];
+        }
+        int xCount = distinct(xs);
+        int yCount = distinct(ys);
+        if (yCount < 2) return 0.0;
+        //events sorted by x: (x rank << 32) | (pixel << 1) | (1 for a right edge)
+        long[] events = new long[2 * n];
+        for (int i = 0; i < n; i++) {
+            events[2 * i] = ((long) rank(xs, xCount, x1[i]) << 32) | ((long) i << 1);
+            events[2 * i + 1] = ((long) rank(xs, xCount, x2[i]) << 32) | ((long) i << 1) | 1;
+        }
+        Arrays.sort(events);
+        int intervals = yCount - 1;
+        int treeSize = 1;
+        while (treeSize < intervals) treeSize <<= 1;
+        count = new int[2 * treeSize];
+        length = new double[2 * treeSize];
+        double area = 0;
+        double prevX = xs[(int) (events[0] >>> 32)];
+        for (long e : events) {
+            double x = xs[(int) (e >>> 32)];
+            area += length[1] * (x - prevX);
+            prevX = x;
+            int i = (int) e >>> 1;
+            int lo = rank(ys, yCount, y1[i]);
+            int hi = rank(ys, yCount, y2[i]);
+            if (lo < hi) {
+                update(1, 0, treeSize, lo, hi, (e & 1) == 0 ? 1 : -1, intervals);
+            }
+        }
+        return area;
+    }
+
+    /**
+     * add delta to the cover count of the elementary y intervals [lo, hi) within the node's range [l, r)
+     */
+    private void update(int node, int l, int r, int lo, int hi, int delta, int intervals) {
+        if (hi <= l || r <= lo || l >= intervals) return;
+        if (lo <= l && r <= hi) {
+            count[node] += delta;
+        } else {
+            int mid = (l + r) >>> 1;
+            update(2 * node, l, mid, lo, hi, delta, intervals);
+            update(2 * node + 1, mid, r, lo, hi, delta, intervals);
+        }
+        if (count[node] > 0) {
+            length[node] = ys[Math.min(r, intervals)] - ys[l];
+        } else if (r - l == 1) {
+            length[node] = 0;
+        } else {
+            length[node] = length[2 * node] + length[2 * node + 1];
+        }
+    }
+}
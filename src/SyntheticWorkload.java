@@ -0,0 +1,428 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic MODIS detections and fire occurrence rows at production scale, for load testing.
+ * The MODIS file has the columns of the archive files (see data/modis_2019_Canada.csv) and the occurrence file
+ * the columns of data/final_2019_sample_all_columns.csv, so both are read by ModisFileReader and OccurrenceFileReader.
+ * Fires start in a few hotspot regions, more often in summer, last several days, grow to a peak and decline,
+ * and drift with a wind direction. Every day a fire is seen by one satellite pass: its pixels lie on the
+ * scan x track lattice of that pass inside the fire's burning disk, and are written in scan line order.
+ * Some fires are reported once, as an occurrence row with the weather of the nearest station on the report day.
+ * Detections are written one day at a time, so memory only holds the fires burning that day.
+ * The output only depends on the parameters: the same seed gives the same files.
+ */
+public class SyntheticWorkload {
+    static final String MODIS_HEADER = "latitude,longitude,brightness,scan,track,acq_date,acq_time,satellite,instrument,confidence,version,bright_t31,frp,daynight,type";
+    static final String OCCURRENCE_HEADER = "aes,wmo,REP_DATE,temp,td,rh,ws,wg,wdir,pres,vis,precip,rndays,sog,ffmc,dmc,dc,bui,isi,fwi,dsr,opts,calcstatus,Station,Distance,name,lon,lat,elev,ACQ_DATE,ATTK_DATE,CAUSE,CFS_ECOZ,CFS_NOTE1,CFS_NOTE2,CFS_REF_ID,DECADE,ECODISTRIC,ECOREGION,ECOZONE,FIRENAME,FIRE_ID,FIRE_TYPE,LATITUDE,LONGITUDE,MORE_INFO,OUT_DATE,PROTZONE,SIZE_HA,SRC_AGENCY,SRC_AGY2,fire_label,Month,Year";
+    static final double KM_PER_DEGREE = 2 * Math.PI * FireGrid.RADIUS / 360;
+    static final int HOTSPOTS = 12;
+    static final int STATIONS = 400;
+    static final int MAX_DURATION = 60; //days
+    static final double MAX_RADIUS = 40; //KM
+    static final double DENSITY = 0.35; //share of the lattice cells of the burning disk detected as fire pixels
+
+    //parameters
+    long detections = 1_000_000;
+    int years = 1;
+    LocalDate start = LocalDate.of(2019, 1, 1);
+    long seed = 42;
+    double reportRate = 0.3; //share of fires reported as an occurrence
+    double minLat = 49, minLng = -130, maxLat = 60, maxLng = -60; //region
+
+    private Random random;
+    private double[] hotspotLat, hotspotLng, hotspotSpread;
+    private double[] stationLat, stationLng;
+    private long fireCount;
+    private long modisRows;
+    private long occurrenceRows;
+
+    /**
+     * One burning fire
+     */
+    private static class Fire {
+        long id;
+        int firstDay;
+        int duration;
+        int peakDay; //days after firstDay
+        int reportDay; //days after firstDay, -1 if never reported
+        double lat, lng; //center of the burning disk
+        double maxRadius; //KM
+        double windDirection; //radians, 0 = north
+        double intensity; //scales brightness and frp
+    }
+
+    /**
+     * Write the MODIS and occurrence files
+     * @param modisFileName
+     * @param occurrenceFileName
+     * @throws IOException
+     */
+    void generate(String modisFileName, String occurrenceFileName) throws IOException {
+        random = new Random(seed);
+        placeHotspotsAndStations();
+        int firstDay = (int) start.toEpochDay();
+        int lastDay = (int) start.plusYears(years).toEpochDay() - 1;
+        double firesPerDay = firesPerSeasonDay(firstDay, lastDay);
+        List<Fire> burning = new ArrayList<>();
+        StringBuilder row = new StringBuilder(256);
+        try (BufferedWriter modis = writer(modisFileName); BufferedWriter occurrences = writer(occurrenceFileName)) {
+            modis.write(MODIS_HEADER);
+            modis.write('\n');
+            occurrences.write(OCCURRENCE_HEADER);
+            occurrences.write('\n');
+            for (int day = firstDay; day <= lastDay; day++) {
+                int ignitions = poisson(firesPerDay * season(day));
+                for (int i = 0; i < ignitions; i++) {
+                    burning.add(ignite(day));
+                }
+                for (Iterator<Fire> it = burning.iterator(); it.hasNext(); ) {
+                    Fire fire = it.next();
+                    int age = day - fire.firstDay;
+                    writePixels(fire, day, age, modis, row);
+                    if (age == fire.reportDay) {
+                        writeOccurrence(fire, day, occurrences, row);
+                    }
+                    fire.lat += Math.cos(fire.windDirection) * 0.3 * radius(fire, age) / KM_PER_DEGREE;
+                    fire.lng += Math.sin(fire.windDirection) * 0.3 * radius(fire, age) / (KM_PER_DEGREE * Math.cos(Math.toRadians(fire.lat)));
+                    fire.windDirection += random.nextGaussian() * 0.3;
+                    if (age + 1 >= fire.duration) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private static BufferedWriter writer(String fileName) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(fileName)), StandardCharsets.US_ASCII), 1 << 20);
+    }
+
+    private void placeHotspotsAndStations() {
+        hotspotLat = new double[HOTSPOTS];
+        hotspotLng = new double[HOTSPOTS];
+        hotspotSpread = new double[HOTSPOTS];
+        for (int h = 0; h < HOTSPOTS; h++) {
+            hotspotLat[h] = minLat + random.nextDouble() * (maxLat - minLat);
+            hotspotLng[h] = minLng + random.nextDouble() * (maxLng - minLng);
+            hotspotSpread[h] = 0.5 + random.nextDouble() * 2; //degrees
+        }
+        stationLat = new double[STATIONS];
+        stationLng = new double[STATIONS];
+        for (int s = 0; s < STATIONS; s++) {
+            stationLat[s] = minLat + random.nextDouble() * (maxLat - minLat);
+            stationLng[s] = minLng + random.nextDouble() * (maxLng - minLng);
+        }
+    }
+
+    /**
+     * @return relative number of ignitions on the day: low in winter, highest in July
+     */
+    private static double season(int day) {
+        double x = (LocalDate.ofEpochDay(day).getDayOfYear() - 200) / 45.0;
+        return 0.05 + Math.exp(-x * x);
+    }
+
+    /**
+     * Number of ignitions per unit of season() that gives about the requested number of detections,
+     * from the average number of pixels of sample fires drawn with their own generator (so the output does not change)
+     */
+    private double firesPerSeasonDay(int firstDay, int lastDay) {
+        Random main = random;
+        long firstId = fireCount;
+        random = new Random(seed ^ 0x5DEECE66DL);
+        long pixels = 0;
+        int samples = 2000;
+        for (int i = 0; i < samples; i++) {
+            Fire fire = ignite(firstDay);
+            for (int age = 0; age < fire.duration; age++) {
+                double u = random.nextDouble();
+                double scan = 1 + 3.8 * u * u;
+                pixels += expectedPixels(radius(fire, age), scan, 1 + (scan - 1) * 0.26);
+            }
+        }
+        random = main;
+        fireCount = firstId; //the sample fires are never written
+        double pixelsPerFire = Math.max(1.0, (double) pixels / samples);
+        double seasonDays = 0;
+        for (int day = firstDay; day <= lastDay; day++) {
+            seasonDays += season(day);
+        }
+        return detections / pixelsPerFire / seasonDays;
+    }
+
+    private Fire ignite(int day) {
+        Fire fire = new Fire();
+        fire.id = fireCount++;
+        fire.firstDay = day;
+        int h = random.nextInt(HOTSPOTS);
+        fire.lat = clamp(hotspotLat[h] + random.nextGaussian() * hotspotSpread[h], minLat, maxLat);
+        fire.lng = clamp(hotspotLng[h] + random.nextGaussian() * hotspotSpread[h], minLng, maxLng);
+        //most fires last a few days, some several weeks
+        fire.duration = Math.min(MAX_DURATION, 1 + (int) (-Math.log(1 - random.nextDouble()) * 5));
+        fire.peakDay = random.nextInt(fire.duration);
+        fire.reportDay = random.nextDouble() < reportRate ? random.nextInt(fire.peakDay + 1) : -1;
+        fire.maxRadius = Math.min(MAX_RADIUS, 1.5 * Math.exp(random.nextGaussian() * 0.8));
+        fire.windDirection = random.nextDouble() * 2 * Math.PI;
+        fire.intensity = 0.5 + random.nextDouble();
+        return fire;
+    }
+
+    /**
+     * @return radius (KM) of the burning disk: growing up to the peak day, then declining
+     */
+    private static double radius(Fire fire, int age) {
+        double growth = age <= fire.peakDay ? (age + 1.0) / (fire.peakDay + 1) : 1 - 0.7 * (age - fire.peakDay) / (double) (fire.duration - fire.peakDay);
+        return fire.maxRadius * growth;
+    }
+
+    private static double expectedPixels(double radius, double scan, double track) {
+        return Math.max(1, DENSITY * Math.PI * radius * radius / (scan * track));
+    }
+
+    /**
+     * Write the pixels of the fire seen by today's satellite pass
+     */
+    private void writePixels(Fire fire, int day, int age, BufferedWriter out, StringBuilder row) throws IOException {
+        double r = radius(fire, age);
+        //MODIS pixels grow from 1 x 1 KM at nadir to about 4.8 x 2 KM at the swath edge
+        double u = random.nextDouble();
+        double scan = round(1 + 3.8 * u * u, 1);
+        double track = round(1 + (scan - 1) * 0.26, 1);
+        boolean terra = random.nextBoolean();
+        boolean daytime = random.nextDouble() < 0.7;
+        //overpass at about 10:30 (Terra) or 13:30 (Aqua) local solar time, 12 hours later at night
+        double localHours = (terra ? 10.5 : 13.5) + (daytime ? 0 : 12) + random.nextGaussian() * 0.5;
+        double utcHours = ((localHours - fire.lng / 15) % 24 + 24) % 24;
+        int time = (int) utcHours * 100 + (int) ((utcHours - (int) utcHours) * 60);
+        String date = LocalDate.ofEpochDay(day).toString();
+        double kmPerLngDegree = KM_PER_DEGREE * Math.cos(Math.toRadians(fire.lat));
+        //lattice of the pass, with a random phase: scan along latitude and track along longitude, as in FireGrid
+        int rows = Math.max(1, (int) Math.ceil(r / scan));
+        int cols = Math.max(1, (int) Math.ceil(r / track));
+        double phaseRow = random.nextDouble() * scan, phaseCol = random.nextDouble() * track;
+        int written = 0;
+        for (int i = -rows; i <= rows; i++) {
+            double dy = i * scan + phaseRow - scan / 2;
+            for (int j = -cols; j <= cols; j++) {
+                double dx = j * track + phaseCol - track / 2;
+                if (dx * dx + dy * dy > r * r || random.nextDouble() >= DENSITY) {
+                    continue;
+                }
+                writePixel(out, row, fire.lat + dy / KM_PER_DEGREE, fire.lng + dx / kmPerLngDegree, scan, track, date, time, terra, daytime, fire.intensity);
+                written++;
+            }
+        }
+        if (written == 0) {
+            //a small fire is still seen as one pixel
+            writePixel(out, row, fire.lat, fire.lng, scan, track, date, time, terra, daytime, fire.intensity);
+        }
+    }
+
+    private void writePixel(BufferedWriter out, StringBuilder row, double lat, double lng, double scan, double track,
+                            String date, int time, boolean terra, boolean daytime, double intensity) throws IOException {
+        double brightness = 300 + intensity * (daytime ? 40 : 25) + Math.abs(random.nextGaussian()) * 25;
+        double frp = intensity * scan * track * Math.exp(2.5 + random.nextGaussian() * 0.9);
+        int confidence = Math.min(100, Math.max(0, (int) (40 + (brightness - 320) * 0.8 + random.nextGaussian() * 10)));
+        row.setLength(0);
+        appendFixed(row, lat, 4).append(',');
+        appendFixed(row, lng, 4).append(',');
+        appendFixed(row, brightness, 1).append(',');
+        appendFixed(row, scan, 1).append(',');
+        appendFixed(row, track, 1).append(',');
+        row.append(date).append(',');
+        if (time < 1000) row.append('0');
+        if (time < 100) row.append('0');
+        if (time < 10) row.append('0');
+        row.append(time).append(',');
+        row.append(terra ? "Terra" : "Aqua").append(",MODIS,");
+        row.append(confidence).append(",6.03,");
+        appendFixed(row, brightness - 35 - random.nextDouble() * 20, 1).append(',');
+        appendFixed(row, frp, 1).append(',');
+        row.append(daytime ? 'D' : 'N').append(",0\n");
+        out.append(row);
+        modisRows++;
+    }
+
+    /**
+     * Write the occurrence row of a reported fire, with the weather of the nearest station on that day
+     */
+    private void writeOccurrence(Fire fire, int day, BufferedWriter out, StringBuilder row) throws IOException {
+        int station = 0;
+        double best = Double.MAX_VALUE;
+        for (int s = 0; s < STATIONS; s++) {
+            double dLat = stationLat[s] - fire.lat, dLng = stationLng[s] - fire.lng;
+            if (dLat * dLat + dLng * dLng < best) {
+                best = dLat * dLat + dLng * dLng;
+                station = s;
+            }
+        }
+        //the weather only depends on the station and the day
+        Random weather = new Random(seed * 31 + (long) station * 1_000_003 + day);
+        double summer = season(day);
+        double temp = -5 + 25 * summer + weather.nextGaussian() * 4;
+        double rh = clamp(70 - 30 * summer + weather.nextGaussian() * 10, 5, 100);
+        double td = temp - (100 - rh) / 5;
+        double ws = Math.abs(weather.nextGaussian()) * 12;
+        double wg = ws * (1.1 + weather.nextDouble() * 0.5);
+        double precip = weather.nextDouble() < 0.3 ? weather.nextDouble() * 8 : 0;
+        double ffmc = clamp(60 + 30 * summer + weather.nextGaussian() * 5, 0, 99);
+        double dmc = 40 * summer * weather.nextDouble() * 2;
+        double dc = 300 * summer * weather.nextDouble() * 2;
+        double bui = 0.8 * dmc * dc / (dmc + 0.4 * dc + 1e-9);
+        double isi = 0.2 * ws * (ffmc / 60);
+        double fwi = Math.sqrt(isi * bui) / 2;
+        LocalDate date = LocalDate.ofEpochDay(day);
+        LocalDate firstDate = LocalDate.ofEpochDay(fire.firstDay);
+        LocalDate outDate = LocalDate.ofEpochDay(fire.firstDay + fire.duration);
+        double distance = Math.sqrt(best) * KM_PER_DEGREE;
+        double sizeHa = Math.PI * fire.maxRadius * fire.maxRadius * 100;
+        row.setLength(0);
+        row.append(8000000 + station).append(',').append(70000 + station).append(',');
+        appendShortDate(row, date).append(',');
+        appendFixed(row, temp, 1).append(',');
+        appendFixed(row, td, 1).append(',');
+        row.append((int) rh).append(',');
+        appendFixed(row, ws, 1).append(',');
+        appendFixed(row, wg, 1).append(',');
+        row.append(weather.nextInt(360)).append(',');
+        appendFixed(row, 1000 + weather.nextGaussian() * 8, 1).append(',');
+        appendFixed(row, 10 + weather.nextDouble() * 15, 1).append(',');
+        appendFixed(row, precip, 2).append(',');
+        row.append(precip > 0 ? 0 : weather.nextInt(10)).append(",0,");
+        appendFixed(row, ffmc, 1).append(',');
+        appendFixed(row, dmc, 1).append(',');
+        appendFixed(row, dc, 1).append(',');
+        appendFixed(row, bui, 1).append(',');
+        appendFixed(row, isi, 1).append(',');
+        appendFixed(row, fwi, 1).append(',');
+        appendFixed(row, 0.0272 * Math.pow(fwi, 1.77), 1).append(',');
+        row.append("IDW=R:M=1:,1,S").append(station).append(',');
+        appendFixed(row, distance, 3).append(",STATION+").append(station).append(',');
+        appendFixed(row, stationLng[station], 3).append(',');
+        appendFixed(row, stationLat[station], 3).append(',');
+        row.append(100 + station % 900).append(',');
+        appendShortDate(row, date).append(",,").append(fire.id % 10 == 0 ? 'H' : 'L').append(',');
+        row.append(4 + station % 12).append(", , ,SY-").append(fire.id).append('-').append(firstDate.getYear()).append(',');
+        int decade = firstDate.getYear() / 10 * 10;
+        row.append(decade).append('-').append(decade + 9).append(',');
+        row.append(100 + station % 900).append(',').append(50 + station % 200).append(',').append(4 + station % 12).append(", ,");
+        row.append(fire.id).append(", ,");
+        appendFixed(row, fire.lat, 8).append(',');
+        appendFixed(row, fire.lng, 8).append(", ,");
+        appendShortDate(row, outDate).append(", ,");
+        appendFixed(row, sizeHa, 1).append(",SY,SY,1,");
+        row.append(date.getMonthValue()).append(',').append(date.getYear()).append('\n');
+        out.append(row);
+        occurrenceRows++;
+    }
+
+    /**
+     * append a date as M/d/yy, the REP_DATE format of the occurrence files
+     */
+    private static StringBuilder appendShortDate(StringBuilder row, LocalDate date) {
+        row.append(date.getMonthValue()).append('/').append(date.getDayOfMonth()).append('/');
+        int yy = date.getYear() % 100;
+        if (yy < 10) row.append('0');
+        return row.append(yy);
+    }
+
+    /**
+     * append a number with a fixed number of decimals, without String.format
+     */
+    static StringBuilder appendFixed(StringBuilder row, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long units = Math.round(Math.abs(value) * scale);
+        if (value < 0 && units != 0) row.append('-');
+        row.append(units / scale);
+        if (decimals > 0) {
+            row.append('.');
+            long fraction = units % scale;
+            for (long s = scale / 10; s > 1 && fraction < s; s /= 10) row.append('0');
+            row.append(fraction);
+        }
+        return row;
+    }
+
+    private static double round(double value, int decimals) {
+        double scale = Math.pow(10, decimals);
+        return Math.round(value * scale) / scale;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int poisson(double mean) {
+        if (mean > 50) {
+            return Math.max(0, (int) Math.round(mean + random.nextGaussian() * Math.sqrt(mean)));
+        }
+        double limit = Math.exp(-mean), p = random.nextDouble();
+        int n = 0;
+        while (p > limit) {
+            p *= random.nextDouble();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Usage: SyntheticWorkload &lt;modis csv&gt; &lt;occurrence csv&gt; [--detections N] [--years Y] [--start yyyy-MM-dd]
+     * [--seed S] [--report-rate R] [--region minLat,minLng,maxLat,maxLng]
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("usage: SyntheticWorkload <modis csv> <occurrence csv> [--detections N] [--years Y] [--start yyyy-MM-dd] [--seed S] [--report-rate R] [--region minLat,minLng,maxLat,maxLng]");
+            return;
+        }
+        SyntheticWorkload workload = new SyntheticWorkload();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--detections":
+                    workload.detections = Long.parseLong(value.replace("_", ""));
+                    break;
+                case "--years":
+                    workload.years = Integer.parseInt(value);
+                    break;
+                case "--start":
+                    workload.start = LocalDate.parse(value);
+                    break;
+                case "--seed":
+                    workload.seed = Long.parseLong(value);
+                    break;
+                case "--report-rate":
+                    workload.reportRate = Double.parseDouble(value);
+                    break;
+                case "--region":
+                    String[] region = value.split(",");
+                    workload.minLat = Double.parseDouble(region[0]);
+                    workload.minLng = Double.parseDouble(region[1]);
+                    workload.maxLat = Double.parseDouble(region[2]);
+                    workload.maxLng = Double.parseDouble(region[3]);
+                    break;
+                default:
+                    System.out.println("unknown option " + args[i]);
+                    return;
+            }
+        }
+        try {
+            long t = System.nanoTime();
+            workload.generate(args[0], args[1]);
+            System.out.println("wrote " + workload.modisRows + " detections of " + workload.fireCount + " fires to " + args[0]
+                    + " and " + workload.occurrenceRows + " occurrences to " + args[1] + " in " + (System.nanoTime() - t) / 1000000 + " ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}